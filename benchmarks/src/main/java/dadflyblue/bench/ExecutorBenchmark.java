@@ -0,0 +1,123 @@
+package dadflyblue.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compares the executors of {@code snowball test-threadpool} on CPU-bound, blocking, mixed and
+ * lock-contended tasks. One operation submits a batch of {@code tasks} tasks with
+ * {@code invokeAll} and waits for all of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutorBenchmark {
+
+  @Param({"common", "cached", "fixed", "virtual"})
+  String executor;
+
+  @Param({"cpu", "blocking", "mixed", "contended"})
+  String workload;
+
+  @Param({"100", "1000", "10000"})
+  int tasks;
+
+  /**
+   * The work of a CPU-bound task, in {@link Blackhole#consumeCPU} tokens.
+   */
+  @Param({"10000"})
+  long cpuTokens;
+
+  /**
+   * The time a blocking task waits, as a stand-in for an I/O call.
+   */
+  @Param({"1000"})
+  long blockingMicros;
+
+  private ExecutorService exec;
+  private List<Callable<Void>> batch;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  @Setup(Level.Trial)
+  public void setup() {
+    exec = switch (executor) {
+      case "common" -> ForkJoinPool.commonPool();
+      case "cached" -> Executors.newCachedThreadPool();
+      case "fixed" -> Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+      case "virtual" -> Executors.newVirtualThreadPerTaskExecutor();
+      default -> throw new IllegalArgumentException("unknown executor: " + executor);
+    };
+    Callable<Void> task = switch (workload) {
+      case "cpu" -> () -> {
+        Blackhole.consumeCPU(cpuTokens);
+        return null;
+      };
+      case "blocking" -> () -> {
+        block();
+        return null;
+      };
+      case "mixed" -> () -> {
+        Blackhole.consumeCPU(cpuTokens / 2);
+        block();
+        return null;
+      };
+      case "contended" -> () -> {
+        lock.lock();
+        try {
+          Blackhole.consumeCPU(cpuTokens / 100);
+        } finally {
+          lock.unlock();
+        }
+        return null;
+      };
+      default -> throw new IllegalArgumentException("unknown workload: " + workload);
+    };
+    batch = new ArrayList<>(tasks);
+    for (int i = 0; i < tasks; i++) {
+      batch.add(task);
+    }
+  }
+
+  private void block() throws InterruptedException {
+    TimeUnit.MICROSECONDS.sleep(blockingMicros);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (exec != ForkJoinPool.commonPool()) {
+      exec.close();
+    }
+  }
+
+  @Benchmark
+  public void invokeAll() throws InterruptedException, ExecutionException {
+    for (var f : exec.invokeAll(batch)) {
+      f.get();
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package dadflyblue.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures process start to first stdout byte, and to exit, of one snowball command line in JVM mode,
+ * with the per-command AppCDS archive or Leyden AOT cache trained by {@code mvn package -Dappcds},
+ * and as a native executable.
+ * <pre>
+ * java -cp target/benchmarks.jar dadflyblue.bench.StartupBenchmark \
+ *     [--runs 20] [--app ../target/quarkus-app] [--native ../target/snowball-1.0.0-SNAPSHOT-runner] \
+ *     -- ok-curl http://localhost:9000/index.html
+ * </pre>
+ * It is a plain main rather than a JMH benchmark, a fresh process per sample is the thing measured.
+ */
+public class StartupBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    var runs = 20;
+    var warmup = 3;
+    var app = Path.of("../target/quarkus-app");
+    Path nativeImage = null;
+    var command = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+        case "--runs" -> runs = Integer.parseInt(args[++i]);
+        case "--warmup" -> warmup = Integer.parseInt(args[++i]);
+        case "--app" -> app = Path.of(args[++i]);
+        case "--native" -> nativeImage = Path.of(args[++i]);
+        case "--" -> {
+          command.addAll(Arrays.asList(args).subList(i + 1, args.length));
+          i = args.length;
+        }
+        default -> command.add(args[i]);
+      }
+    }
+    if (command.isEmpty()) {
+      command.add("--version");
+    }
+
+    var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    var jar = app.resolve("quarkus-run.jar").toString();
+    var name = command.get(0).startsWith("-") ? "version" : command.get(0);
+    var modes = new LinkedHashMap<String, List<String>>();
+    modes.put("jvm", List.of(java, "-jar", jar));
+    var jsa = app.resolve("appcds").resolve(name + ".jsa");
+    if (Files.exists(jsa)) {
+      modes.put("appcds", List.of(java, "-XX:SharedArchiveFile=" + jsa, "-jar", jar));
+    }
+    var aot = app.resolve("appcds").resolve(name + ".aot");
+    if (Files.exists(aot)) {
+      modes.put("aot", List.of(java, "-XX:AOTCache=" + aot, "-jar", jar));
+    }
+    if (nativeImage != null && Files.isExecutable(nativeImage)) {
+      modes.put("native", List.of(nativeImage.toString()));
+    }
+
+    System.out.printf("%s, %d runs after %d warmup runs%n", String.join(" ", command), runs, warmup);
+    System.out.printf("%-8s %12s %12s %12s %12s %12s%n",
+        "mode", "first p50", "first p90", "first min", "exit p50", "exit p90");
+    for (Map.Entry<String, List<String>> mode : modes.entrySet()) {
+      var cmd = new ArrayList<>(mode.getValue());
+      cmd.addAll(command);
+      for (int i = 0; i < warmup; i++) {
+        sample(cmd);
+      }
+      var first = new long[runs];
+      var exit = new long[runs];
+      for (int i = 0; i < runs; i++) {
+        var s = sample(cmd);
+        first[i] = s[0];
+        exit[i] = s[1];
+      }
+      Arrays.sort(first);
+      Arrays.sort(exit);
+      System.out.printf("%-8s %10.1fms %10.1fms %10.1fms %10.1fms %10.1fms%n", mode.getKey(),
+          percentile(first, 50), percentile(first, 90), first[0] / 1e6,
+          percentile(exit, 50), percentile(exit, 90));
+    }
+  }
+
+  /**
+   * Returns the nanoseconds from starting the process to its first stdout byte and to its exit.
+   */
+  private static long[] sample(List<String> cmd) throws IOException, InterruptedException {
+    var start = System.nanoTime();
+    var p = new ProcessBuilder(cmd)
+        .redirectError(ProcessBuilder.Redirect.DISCARD)
+        .redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")))
+        .start();
+    long first;
+    try (InputStream in = p.getInputStream()) {
+      in.read();
+      first = System.nanoTime() - start;
+      in.transferTo(OutputStream.nullOutputStream());
+    }
+    var code = p.waitFor();
+    if (code != 0) {
+      throw new IllegalStateException(String.join(" ", cmd) + " exited with " + code);
+    }
+    return new long[]{first, System.nanoTime() - start};
+  }
+
+  private static double percentile(long[] sorted, double p) {
+    var i = (int) Math.ceil(p / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, i)] / 1e6;
+  }
+}
@@ -0,0 +1,67 @@
+#!/usr/bin/env bash
+# Trains one class-data archive per subcommand, run by `mvn package -Dappcds`.
+#
+#   train.sh <quarkus-app dir>
+#
+# With a JDK that has the Leyden AOT cache (JEP 483, JDK 24+) it writes <app>/appcds/<command>.aot,
+# use it with: java -XX:AOTCache=<app>/appcds/ok-curl.aot -jar <app>/quarkus-run.jar ok-curl ...
+# Otherwise it writes dynamic AppCDS archives <app>/appcds/<command>.jsa,
+# use them with: java -XX:SharedArchiveFile=<app>/appcds/ok-curl.jsa -jar <app>/quarkus-run.jar ok-curl ...
+set -euo pipefail
+
+app=$(cd "${1:-target/quarkus-app}" && pwd)
+out="$app/appcds"
+java="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+work=$(mktemp -d)
+trap 'kill "${server:-}" 2>/dev/null || true; rm -rf "$work"' EXIT
+mkdir -p "$out" "$work/www"
+echo "hello" > "$work/www/index.txt"
+head -c 1048576 /dev/zero > "$work/www/large.bin"
+
+aot=false
+if "$java" -XX:AOTMode=off -version > /dev/null 2>&1; then
+  aot=true
+fi
+
+# train <archive name> <command args...>: runs the command once and archives the classes it loaded
+train() {
+  local name=$1
+  shift
+  if $aot; then
+    "$java" -XX:AOTMode=record -XX:AOTConfiguration="$out/$name.aotconf" -jar "$app/quarkus-run.jar" "$@" > /dev/null
+    "$java" -XX:AOTMode=create -XX:AOTConfiguration="$out/$name.aotconf" -XX:AOTCache="$out/$name.aot" \
+      -jar "$app/quarkus-run.jar" "$@" > /dev/null
+    rm -f "$out/$name.aotconf"
+  else
+    "$java" -XX:ArchiveClassesAtExit="$out/$name.jsa" -jar "$app/quarkus-run.jar" "$@" > /dev/null
+  fi
+}
+
+port=$(( 20000 + RANDOM % 20000 ))
+if $aot; then
+  server_archive=(-XX:AOTMode=record -XX:AOTConfiguration="$out/static-server.aotconf")
+else
+  server_archive=(-XX:ArchiveClassesAtExit="$out/static-server.jsa")
+fi
+(cd "$work" && exec "$java" "${server_archive[@]}" -jar "$app/quarkus-run.jar" static-server www -p "$port" -i 1 > /dev/null) &
+server=$!
+for _ in $(seq 100); do
+  (echo > "/dev/tcp/127.0.0.1/$port") 2> /dev/null && break
+  sleep 0.1
+done
+
+train version --version
+train ok-curl ok-curl "http://127.0.0.1:$port/index.txt"
+train vertx-curl vertx-curl -p "$port" /large.bin
+train test-threadpool test-threadpool --scale 1000
+
+# the archive of the server is written when it exits
+kill "$server"
+wait "$server" || true
+server=
+if $aot; then
+  "$java" -XX:AOTMode=create -XX:AOTConfiguration="$out/static-server.aotconf" \
+    -XX:AOTCache="$out/static-server.aot" -jar "$app/quarkus-run.jar" --version > /dev/null
+  rm -f "$out/static-server.aotconf"
+fi
+ls -l "$out"
@@ -0,0 +1,159 @@
+package dadflyblue;
+
+import dadflyblue.stats.LatencyHistogram;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.core.http.HttpServer;
+import io.vertx.mutiny.core.http.HttpServerRequest;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The load-test target of {@code bench-server} and {@code bench-transport}.
+ * <ul>
+ *   <li>{@code /echo} streams the request body back.</li>
+ *   <li>{@code /bytes/<n>} returns n bytes, at most the payload's {@code max(size, sizeMax)}, a negative n is
+ *   a 400.</li>
+ *   <li>Any other path returns {@code size} bytes, or a random size up to {@code sizeMax}.</li>
+ * </ul>
+ * The bodies are slices of one preallocated read-only buffer shared by every server, so serving
+ * them allocates nothing. Each server records latency into its own histogram on its event loop,
+ * {@link #drainLatency} merges them.
+ */
+final class BenchServer {
+  private final int size;
+  private final int sizeMax;
+  private final long latency;
+  private final long latencyJitter;
+  private final double errorRate;
+  private final int errorStatus;
+  private final Buffer payload;
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final List<LatencyHistogram> histograms = new CopyOnWriteArrayList<>();
+
+  /**
+   * @param latency       the milliseconds every response is delayed
+   * @param latencyJitter up to this many more random milliseconds
+   * @param errorRate     the fraction of requests answered with {@code errorStatus} and no body
+   */
+  BenchServer(int size, int sizeMax, long latency, long latencyJitter, double errorRate, int errorStatus) {
+    this.size = size;
+    this.sizeMax = Math.max(size, sizeMax);
+    this.latency = latency;
+    this.latencyJitter = latencyJitter;
+    this.errorRate = errorRate;
+    this.errorStatus = errorStatus;
+    var bytes = new byte[this.sizeMax];
+    new Random(42).nextBytes(bytes);
+    this.payload = Buffer.buffer(bytes);
+  }
+
+  /**
+   * Creates a server with its own latency histogram, call it on the event loop that will serve it.
+   */
+  HttpServer create(Vertx vertx, HttpServerOptions options) {
+    var histogram = new LatencyHistogram();
+    histograms.add(histogram);
+    return vertx.createHttpServer(options).requestHandler(req -> handle(vertx, req, histogram));
+  }
+
+  long requests() {
+    return requests.sum();
+  }
+
+  long errors() {
+    return errors.sum();
+  }
+
+  long bytes() {
+    return bytes.sum();
+  }
+
+  /**
+   * Moves what every server recorded since the last call into {@code into}.
+   */
+  void drainLatency(LatencyHistogram into) {
+    for (var h : histograms) {
+      synchronized (h) {
+        into.add(h);
+        h.reset();
+      }
+    }
+  }
+
+  private void handle(Vertx vertx, HttpServerRequest req, LatencyHistogram histogram) {
+    var start = System.nanoTime();
+    var resp = req.response();
+    resp.endHandler(() -> {
+      var elapsed = System.nanoTime() - start;
+      synchronized (histogram) {
+        histogram.record(elapsed);
+      }
+      requests.increment();
+      bytes.add(resp.bytesWritten());
+    });
+
+    var random = ThreadLocalRandom.current();
+    var delay = latency + (latencyJitter > 0 ? random.nextLong(latencyJitter + 1) : 0);
+    if (errorRate > 0 && random.nextDouble() < errorRate) {
+      errors.increment();
+      later(vertx, delay, () -> resp.setStatusCode(errorStatus).endAndForget());
+      return;
+    }
+
+    var path = req.path();
+    if (path.equals("/echo")) {
+      req.pause();
+      later(vertx, delay, () -> echo(req));
+      return;
+    }
+    int n;
+    if (path.startsWith("/bytes/")) {
+      try {
+        n = Math.min(sizeMax, Integer.parseInt(path.substring("/bytes/".length())));
+      } catch (NumberFormatException e) {
+        n = -1;
+      }
+      if (n < 0) {
+        resp.setStatusCode(400).endAndForget();
+        return;
+      }
+    } else {
+      n = sizeMax > size ? size + random.nextInt(sizeMax - size + 1) : size;
+    }
+    var body = payload.slice(0, n);
+    later(vertx, delay, () -> resp.putHeader("Content-Type", "application/octet-stream").endAndForget(body));
+  }
+
+  private static void echo(HttpServerRequest req) {
+    var resp = req.response();
+    var length = req.getHeader("Content-Length");
+    if (length != null) {
+      resp.putHeader("Content-Length", length);
+    } else {
+      resp.setChunked(true);
+    }
+    var type = req.getHeader("Content-Type");
+    if (type != null) {
+      resp.putHeader("Content-Type", type);
+    }
+    req.pipeTo(resp).subscribe().with(v -> {
+    }, e -> resp.reset());
+  }
+
+  private static void later(Vertx vertx, long delay, Runnable action) {
+    if (delay > 0) {
+      vertx.setTimer(delay, id -> action.run());
+    } else {
+      action.run();
+    }
+  }
+}
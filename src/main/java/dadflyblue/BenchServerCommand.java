@@ -0,0 +1,179 @@
+package dadflyblue;
+
+import dadflyblue.stats.LatencyHistogram;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.vertx.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.net.SocketAddress;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+@Command(name = "bench-server",
+    description = "Serves fixed or random size payloads and echoes bodies, a load-test target that isn't the bottleneck.",
+    mixinStandardHelpOptions = true,
+    versionProvider = VersionProvider.class)
+public class BenchServerCommand implements Runnable {
+
+  @Option(names = {"--port", "-p"}, defaultValue = "9000",
+      description = "The serving port, 0 disables tcp when serving on unix socket, default: 9000")
+  int port;
+
+  @Option(names = {"--unix-socket", "-x"},
+      description = "Also serve on this unix socket address(native transport only).")
+  String unixSocketAddress;
+
+  @Option(names = {"--unix-socket-mode"},
+      description = "The permissions of the unix socket file, e.g. rw-rw----, set before it's reachable, default: by umask")
+  String unixSocketMode;
+
+  // where the servers bind the unix socket, see UnixSockets.staging
+  private String unixSocketBinding;
+
+  @Option(names = {"--instances", "-i"},
+      description = "The number of http server instances(event loops) sharing the port, default: number of cores")
+  int instances = Runtime.getRuntime().availableProcessors();
+
+  @Option(names = {"--size", "-s"}, defaultValue = "1024",
+      description = "The response payload bytes, default: 1024")
+  int size;
+
+  @Option(names = {"--size-max"}, defaultValue = "0",
+      description = "Return a random payload size between --size and this, 0 keeps it fixed, /bytes/<n> is capped at the larger of the two, default: 0")
+  int sizeMax;
+
+  @Option(names = {"--latency"}, defaultValue = "0",
+      description = "The milliseconds every response is delayed by, default: 0")
+  long latency;
+
+  @Option(names = {"--latency-jitter"}, defaultValue = "0",
+      description = "Delay every response up to this many more random milliseconds, default: 0")
+  long latencyJitter;
+
+  @Option(names = {"--error-rate"}, defaultValue = "0",
+      description = "The fraction(0 to 1) of requests answered with --error-status, default: 0")
+  double errorRate;
+
+  @Option(names = {"--error-status"}, defaultValue = "500",
+      description = "The status of the injected errors, default: 500")
+  int errorStatus;
+
+  @Option(names = {"--stats-interval"}, defaultValue = "10",
+      description = "Print the server-side throughput and latency of every this many seconds with traffic, 0 disables it, default: 10")
+  int statsInterval;
+
+  @Option(names = {"--tcp-no-delay"}, defaultValue = "true",
+      description = "Enable TCP_NODELAY, default: true")
+  boolean tcpNoDelay;
+
+  @Option(names = {"--reuse-port"}, defaultValue = "true",
+      description = "Enable SO_REUSEPORT(native transport only), default: true")
+  boolean reusePort;
+
+  BenchServer server;
+
+  @Override
+  public void run() {
+    var vertx = Vertx.vertx(new VertxOptions()
+        .setPreferNativeTransport(true)
+        .setEventLoopPoolSize(Math.max(VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE, instances)));
+
+    server = new BenchServer(size, sizeMax, latency, latencyJitter, errorRate, errorStatus);
+
+    if (unixSocketAddress != null) {
+      if (!vertx.isNativeTransportEnabled()) {
+        throw new IllegalStateException("unix socket requires native transport",
+            vertx.unavailableNativeTransportCause());
+      }
+      UnixSockets.deleteIfStale(unixSocketAddress);
+      UnixSockets.deleteOnExit(unixSocketAddress);
+      unixSocketBinding = UnixSockets.staging(unixSocketAddress, unixSocketMode);
+    }
+
+    vertx.deployVerticleAndAwait(ServerVerticle::new,
+        new DeploymentOptions().setInstances(instances));
+
+    if (unixSocketAddress != null) {
+      UnixSockets.publish(unixSocketBinding, unixSocketAddress, unixSocketMode);
+    }
+
+    System.out.printf("bench-server is serving on: [%s], size: %s, instances: %d, native transport: %s%n",
+        listening(), sizeMax > size ? size + "-" + sizeMax : size, instances, vertx.isNativeTransportEnabled());
+
+    var total = new LatencyHistogram();
+    var start = System.nanoTime();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      synchronized (total) {
+        server.drainLatency(total);
+        print("total", server.requests(), server.errors(), server.bytes(), (System.nanoTime() - start) / 1e9, total);
+      }
+    }));
+    if (statsInterval > 0) {
+      var last = new long[3];
+      var lastTime = new long[]{start};
+      vertx.setPeriodic(statsInterval * 1000L, id -> {
+        var interval = new LatencyHistogram();
+        server.drainLatency(interval);
+        synchronized (total) {
+          total.add(interval);
+        }
+        var now = System.nanoTime();
+        var counts = new long[]{server.requests(), server.errors(), server.bytes()};
+        if (counts[0] != last[0]) {
+          print(statsInterval + "s", counts[0] - last[0], counts[1] - last[1], counts[2] - last[2],
+              (now - lastTime[0]) / 1e9, interval);
+        }
+        System.arraycopy(counts, 0, last, 0, counts.length);
+        lastTime[0] = now;
+      });
+    }
+
+    // Since vertx is serving the requests in an async way,
+    // we need to hold the main thread to prevent the process from terminating.
+    try {
+      new CountDownLatch(1).await();
+    } catch (InterruptedException ignored) {
+    }
+  }
+
+  private static void print(String title, long requests, long errors, long bytes, double seconds, LatencyHistogram h) {
+    System.out.printf(Locale.ROOT,
+        "bench-server %s: requests: %d, errors: %d, %.1f req/s, %.2f MB/s, " +
+            "latency p50: %.3fms, p90: %.3fms, p99: %.3fms, p99.9: %.3fms, max: %.3fms%n",
+        title, requests, errors, requests / seconds, bytes / seconds / (1 << 20),
+        h.valueAtPercentile(50) / 1e6, h.valueAtPercentile(90) / 1e6, h.valueAtPercentile(99) / 1e6,
+        h.valueAtPercentile(99.9) / 1e6, h.max() / 1e6);
+  }
+
+  private String listening() {
+    var tcp = port > 0 ? ":" + port : "";
+    if (unixSocketAddress == null) {
+      return tcp;
+    }
+    return tcp.isEmpty() ? unixSocketAddress : tcp + ", " + unixSocketAddress;
+  }
+
+  /**
+   * One http server per event loop, vertx balances the connections of the shared port among them.
+   */
+  private class ServerVerticle extends AbstractVerticle {
+    @Override
+    public Uni<Void> asyncStart() {
+      var options = new HttpServerOptions()
+          .setTcpNoDelay(tcpNoDelay)
+          .setReusePort(reusePort);
+      var tcp = port > 0 || unixSocketAddress == null ?
+          server.create(vertx, options).listen(port).replaceWithVoid() :
+          Uni.createFrom().voidItem();
+      var uds = unixSocketAddress != null ?
+          server.create(vertx, options).listen(SocketAddress.domainSocketAddress(unixSocketBinding)).replaceWithVoid() :
+          Uni.createFrom().voidItem();
+      return Uni.combine().all().unis(tcp, uds).discardItems();
+    }
+  }
+}
@@ -0,0 +1,322 @@
+package dadflyblue;
+
+import dadflyblue.stats.LatencyHistogram;
+import dadflyblue.unixsocket.UnixDomainSocketFactory;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.http.HttpClient;
+import io.vertx.mutiny.core.http.HttpServer;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@Command(name = "bench-transport",
+    description = "Benchmarks the OkHttp and Vert.x clients over TCP loopback and unix domain sockets.",
+    mixinStandardHelpOptions = true,
+    versionProvider = VersionProvider.class)
+public class BenchTransportCommand implements Runnable {
+
+  @Option(names = {"--clients"}, split = ",", defaultValue = "okhttp,vertx",
+      description = "The clients to benchmark, default: okhttp,vertx")
+  List<String> clients;
+
+  @Option(names = {"--transports"}, split = ",", defaultValue = "tcp,uds",
+      description = "The transports to benchmark, default: tcp,uds")
+  List<String> transports;
+
+  @Option(names = {"--sizes"}, split = ",", defaultValue = "64,4096,65536",
+      description = "The response payload sizes in bytes, default: 64,4096,65536")
+  List<Integer> sizes;
+
+  @Option(names = {"--concurrency", "-c"}, split = ",", defaultValue = "1,16,64",
+      description = "The in-flight requests(closed loop), default: 1,16,64")
+  List<Integer> concurrency;
+
+  @Option(names = {"--duration"}, defaultValue = "5",
+      description = "The measured seconds per combination, default: 5")
+  int duration;
+
+  @Option(names = {"--warmup"}, defaultValue = "2",
+      description = "The discarded warmup seconds per combination, default: 2")
+  int warmup;
+
+  @Option(names = {"--unix-socket", "-x"},
+      description = "The unix socket path of the in-process server, default: a temporary file")
+  String unixSocketPath;
+
+  @Option(names = {"--json"}, description = "Also write the results as json to this file(\"-\" for stdout).")
+  String json;
+
+  record Result(String client, String transport, int size, int concurrency,
+                long requests, long errors, long bytes, double seconds, LatencyHistogram latency) {
+  }
+
+  @Override
+  public void run() {
+    var vertx = Vertx.vertx(new VertxOptions().setPreferNativeTransport(true));
+    var results = new ArrayList<Result>();
+    Path socket = null;
+    Path tempDir = null;
+    try {
+      var max = sizes.stream().mapToInt(Integer::intValue).max().orElse(0);
+      var server = new BenchServer(max, max, 0, 0, 0, 500);
+      var tcp = server.create(vertx, new HttpServerOptions()).listenAndAwait(0, "127.0.0.1");
+      HttpServer uds = null;
+      if (transports.contains("uds")) {
+        if (!vertx.isNativeTransportEnabled()) {
+          System.out.println("uds is skipped, it needs the native transport: " + vertx.unavailableNativeTransportCause());
+        } else {
+          if (unixSocketPath != null) {
+            socket = Path.of(unixSocketPath);
+          } else {
+            tempDir = Files.createTempDirectory("bench-transport");
+            socket = tempDir.resolve("server.sock");
+          }
+          uds = server.create(vertx, new HttpServerOptions()).listenAndAwait(
+              io.vertx.mutiny.core.net.SocketAddress.domainSocketAddress(socket.toString()));
+        }
+      }
+
+      System.out.printf("%-7s %-9s %8s %5s %10s %9s %9s %9s %9s %9s %7s%n",
+          "client", "transport", "size", "conc", "req/s", "MB/s", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "errors");
+      for (var transport : transports) {
+        if (transport.equals("uds") && uds == null || !transport.equals("uds") && !transport.equals("tcp")) {
+          continue;
+        }
+        for (var client : clients) {
+          for (var size : sizes) {
+            for (var c : concurrency) {
+              var run = switch (client) {
+                case "okhttp" -> (Runner) this::okhttp;
+                case "vertx" -> (Runner) this::vertx;
+                default -> throw new IllegalArgumentException("unknown client: " + client);
+              };
+              var port = tcp.actualPort();
+              var path = socket == null ? null : socket.toString();
+              var isUds = transport.equals("uds");
+              run.run(isUds ? path : null, port, size, c, warmup);
+              var r = run.run(isUds ? path : null, port, size, c, duration);
+              var result = new Result(client, transport, size, c, r.requests(), r.errors(), r.bytes(),
+                  r.seconds(), r.latency());
+              results.add(result);
+              print(result);
+            }
+          }
+        }
+      }
+      tcp.closeAndAwait();
+      if (uds != null) {
+        uds.closeAndAwait();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      vertx.closeAndAwait();
+      if (socket != null) {
+        socket.toFile().delete();
+      }
+      if (tempDir != null) {
+        tempDir.toFile().delete();
+      }
+    }
+
+    if (json != null) {
+      writeJson(results);
+    }
+  }
+
+  @FunctionalInterface
+  interface Runner {
+    Result run(String socket, int port, int size, int concurrency, int seconds);
+  }
+
+  /**
+   * Closed loop: each of the {@code concurrency} virtual threads sends its next request when the previous one is done.
+   */
+  private Result okhttp(String socket, int port, int size, int concurrency, int seconds) {
+    var b = new OkHttpClient.Builder()
+        .connectionPool(new ConnectionPool(concurrency, 5, TimeUnit.MINUTES));
+    UnixDomainSocketFactory factory = null;
+    if (socket != null) {
+      factory = new UnixDomainSocketFactory(socket);
+      b.setSocketFactory$okhttp(factory);
+    }
+    var client = b.build();
+    var request = new Request.Builder().url("http://127.0.0.1:" + port + "/bytes/" + size).build();
+    var histograms = new LatencyHistogram[concurrency];
+    var counts = new long[concurrency][3];
+    var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    var start = System.nanoTime();
+    try (var exec = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < concurrency; i++) {
+        final var id = i;
+        histograms[id] = new LatencyHistogram();
+        exec.execute(() -> {
+          while (System.nanoTime() < deadline) {
+            var t0 = System.nanoTime();
+            try (var response = client.newCall(request).execute();
+                 var in = response.body().byteStream()) {
+              counts[id][2] += in.transferTo(OutputStream.nullOutputStream());
+              histograms[id].record(System.nanoTime() - t0);
+              counts[id][0]++;
+            } catch (IOException e) {
+              counts[id][1]++;
+            }
+          }
+        });
+      }
+    }
+    var elapsed = (System.nanoTime() - start) / 1e9;
+    client.connectionPool().evictAll();
+    if (factory != null) {
+      factory.close();
+    }
+    var latency = new LatencyHistogram();
+    long requests = 0, errors = 0, bytes = 0;
+    for (int i = 0; i < concurrency; i++) {
+      latency.add(histograms[i]);
+      requests += counts[i][0];
+      errors += counts[i][1];
+      bytes += counts[i][2];
+    }
+    return new Result("okhttp", null, size, concurrency, requests, errors, bytes, elapsed, latency);
+  }
+
+  /**
+   * Closed loop: {@code concurrency} request chains on one client context, so the counters and the
+   * histogram are confined to its event loop.
+   */
+  private Result vertx(String socket, int port, int size, int concurrency, int seconds) {
+    var vertx = Vertx.vertx(new VertxOptions().setPreferNativeTransport(true).setEventLoopPoolSize(1));
+    var client = vertx.createHttpClient(new HttpClientOptions().setMaxPoolSize(concurrency));
+    var options = new RequestOptions()
+        .setMethod(HttpMethod.GET)
+        .setHost("127.0.0.1")
+        .setPort(port)
+        .setURI("/bytes/" + size);
+    if (socket != null) {
+      options.setServer(SocketAddress.domainSocketAddress(socket));
+    }
+    var loop = new VertxLoop(client, options, concurrency, TimeUnit.SECONDS.toNanos(seconds));
+    vertx.runOnContext(loop::start);
+    try {
+      if (!loop.done.await(seconds + 30L, TimeUnit.SECONDS)) {
+        System.out.println("timeout waiting for in-flight requests, result is partial.");
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } finally {
+      vertx.closeAndAwait();
+    }
+    return new Result("vertx", null, size, concurrency, loop.requests, loop.errors, loop.bytes,
+        (loop.end - loop.start) / 1e9, loop.latency);
+  }
+
+  private static final class VertxLoop {
+    final HttpClient client;
+    final RequestOptions options;
+    final int concurrency;
+    final long duration;
+    final LatencyHistogram latency = new LatencyHistogram();
+    final CountDownLatch done = new CountDownLatch(1);
+    long start;
+    long end;
+    long requests;
+    long errors;
+    long bytes;
+    int active;
+
+    VertxLoop(HttpClient client, RequestOptions options, int concurrency, long duration) {
+      this.client = client;
+      this.options = options;
+      this.concurrency = concurrency;
+      this.duration = duration;
+    }
+
+    void start() {
+      start = System.nanoTime();
+      active = concurrency;
+      for (int i = 0; i < concurrency; i++) {
+        next();
+      }
+    }
+
+    void next() {
+      if (System.nanoTime() - start >= duration) {
+        if (--active == 0) {
+          end = System.nanoTime();
+          done.countDown();
+        }
+        return;
+      }
+      var t0 = System.nanoTime();
+      client.request(options)
+          .chain(r -> r.send())
+          .chain(r -> r.body())
+          .subscribe().with(
+              b -> {
+                latency.record(System.nanoTime() - t0);
+                requests++;
+                bytes += b.length();
+                next();
+              },
+              e -> {
+                errors++;
+                next();
+              });
+    }
+  }
+
+  private static void print(Result r) {
+    var h = r.latency();
+    System.out.printf("%-7s %-9s %8d %5d %10.1f %9.2f %9.3f %9.3f %9.3f %9.3f %7d%n",
+        r.client(), r.transport(), r.size(), r.concurrency(),
+        r.requests() / r.seconds(), r.bytes() / r.seconds() / (1 << 20),
+        h.valueAtPercentile(50) / 1e6, h.valueAtPercentile(90) / 1e6,
+        h.valueAtPercentile(99) / 1e6, h.valueAtPercentile(99.9) / 1e6, r.errors());
+  }
+
+  private void writeJson(List<Result> results) {
+    var sb = new StringBuilder("[\n");
+    for (int i = 0; i < results.size(); i++) {
+      var r = results.get(i);
+      var h = r.latency();
+      sb.append(String.format(Locale.ROOT,
+          "  {\"client\": \"%s\", \"transport\": \"%s\", \"size\": %d, \"concurrency\": %d, " +
+              "\"requests\": %d, \"errors\": %d, \"bytes\": %d, \"seconds\": %.3f, \"rps\": %.1f, " +
+              "\"latency_ns\": {\"mean\": %.0f, \"p50\": %d, \"p90\": %d, \"p99\": %d, \"p999\": %d, \"max\": %d}}%s%n",
+          r.client(), r.transport(), r.size(), r.concurrency(), r.requests(), r.errors(), r.bytes(),
+          r.seconds(), r.requests() / r.seconds(), h.mean(), h.valueAtPercentile(50), h.valueAtPercentile(90),
+          h.valueAtPercentile(99), h.valueAtPercentile(99.9), h.max(), i < results.size() - 1 ? "," : ""));
+    }
+    sb.append("]\n");
+    if (json.equals("-")) {
+      System.out.print(sb);
+      return;
+    }
+    try (var out = new PrintStream(Files.newOutputStream(Path.of(json)))) {
+      out.print(sb);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package dadflyblue;
+
+import io.quarkus.picocli.runtime.PicocliCommandLineFactory;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Produces;
+import picocli.CommandLine;
+
+@ApplicationScoped
+public class CommandLineConfiguration {
+
+  /**
+   * Everything after the command name of {@code remote} is the remote command line, its options included.
+   */
+  @Produces
+  CommandLine commandLine(PicocliCommandLineFactory factory) {
+    var commandLine = factory.create();
+    commandLine.getSubcommands().get("remote").setStopAtPositional(true);
+    return commandLine;
+  }
+}
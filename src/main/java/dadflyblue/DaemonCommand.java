@@ -0,0 +1,125 @@
+package dadflyblue;
+
+import dadflyblue.daemon.Frames;
+import dadflyblue.daemon.StdinQueue;
+import dadflyblue.daemon.Stdio;
+import io.quarkus.picocli.runtime.PicocliCommandLineFactory;
+import jakarta.inject.Inject;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Command(name = "daemon",
+    description = "Keeps one warm process, with its clients and connection pools, running the commands sent by `remote`.",
+    mixinStandardHelpOptions = true,
+    versionProvider = VersionProvider.class)
+public class DaemonCommand implements Runnable {
+
+  // Servers never return, and test-threadpool tunes and measures the whole process.
+  private static final Set<String> UNSUPPORTED = Set.of(
+      "daemon", "remote", "static-server", "bench-server", "uds-proxy", "proxy", "test-threadpool");
+
+  @Option(names = {"--unix-socket", "-x"}, defaultValue = RemoteCommand.DEFAULT_SOCKET,
+      description = "The unix socket address to listen on, default: " + RemoteCommand.DEFAULT_SOCKET)
+  String unixSocketAddress;
+
+  @Option(names = {"--unix-socket-mode"}, defaultValue = "rw-------",
+      description = "The permissions of the unix socket file, whoever can connect runs commands as this user, set before it's reachable, default: rw-------")
+  String unixSocketMode;
+
+  @Inject
+  PicocliCommandLineFactory commandLineFactory;
+
+  @Override
+  public void run() {
+    SharedClients.start();
+    Stdio.install();
+
+    UnixSockets.deleteIfStale(unixSocketAddress);
+    try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      var binding = UnixSockets.staging(unixSocketAddress, unixSocketMode);
+      server.bind(UnixDomainSocketAddress.of(binding));
+      UnixSockets.deleteOnExit(unixSocketAddress);
+      UnixSockets.publish(binding, unixSocketAddress, unixSocketMode);
+      System.out.printf("snowball daemon is serving on: %s%n", unixSocketAddress);
+      while (true) {
+        var ch = server.accept();
+        Thread.ofVirtual().name("daemon-invocation").start(() -> serve(ch));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Runs the command line of one connection, with a fresh command instance from the CDI factory.
+   */
+  private void serve(SocketChannel ch) {
+    try (ch;
+         var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 64 * 1024))) {
+      var out = new Frames.Writer(Channels.newOutputStream(ch));
+      var first = Frames.read(in);
+      if (first.type() != Frames.ARGS) {
+        return;
+      }
+      var args = Frames.args(first);
+      var stdin = new StdinQueue();
+      var stdout = new PrintStream(out.stream(Frames.STDOUT), true, StandardCharsets.UTF_8);
+      var stderr = new PrintStream(out.stream(Frames.STDERR), true, StandardCharsets.UTF_8);
+
+      var done = new AtomicBoolean();
+      var invocation = Thread.currentThread();
+      Thread.ofVirtual().name("daemon-stdin").start(() -> {
+        try {
+          while (true) {
+            var frame = Frames.read(in);
+            if (frame.type() == Frames.STDIN) {
+              stdin.offer(frame.payload());
+            }
+          }
+        } catch (IOException | InterruptedException e) {
+          // the client is gone, or the command is done and closed the connection
+          stdin.end();
+          if (!done.get()) {
+            invocation.interrupt();
+          }
+        }
+      });
+
+      int code;
+      if (args.length > 0 && UNSUPPORTED.contains(args[0])) {
+        stderr.printf("%s can't run in the daemon, run it directly%n", args[0]);
+        code = 2;
+      } else {
+        code = Stdio.run(new Stdio.Streams(stdin, stdout, stderr), () -> {
+          var commandLine = commandLineFactory.create();
+          commandLine.setOut(new PrintWriter(stdout, true));
+          commandLine.setErr(new PrintWriter(stderr, true));
+          return commandLine.execute(args);
+        });
+      }
+      done.set(true);
+      stdin.close();
+      Thread.interrupted();
+      stdout.flush();
+      stderr.flush();
+      out.writeExit(code);
+    } catch (IOException ignored) {
+      // the client is gone
+    }
+  }
+}
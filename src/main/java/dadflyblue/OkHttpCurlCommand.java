@@ -1,17 +1,41 @@
 package dadflyblue;
 
+import dadflyblue.daemon.Stdio;
 import dadflyblue.unixsocket.UnixDomainSocketFactory;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
+import okhttp3.Response;
 import okhttp3.ResponseBody;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 @Command(name = "ok-curl",
     mixinStandardHelpOptions = true,
@@ -27,40 +51,335 @@ public class OkHttpCurlCommand implements Runnable {
   @Option(names = {"--method", "-m"}, defaultValue = "GET", description = "The http method, default: GET.")
   String method;
 
-  @Option(names = {"--unix-socket", "-x"}, description = "The unix socket address.")
-  String unixSocketAddress;
+  @Option(names = {"--unix-socket", "-x"},
+      description = "The unix socket address, repeat it to balance over several sockets.")
+  List<String> unixSocketAddresses;
 
-  @Override
-  public void run() {
-    var client = new OkHttpClient.Builder()
+  @Option(names = {"--lb-policy"}, defaultValue = "ROUND_ROBIN",
+      description = "How connections are spread over the unix sockets: ${COMPLETION-CANDIDATES}, default: ROUND_ROBIN")
+  UnixDomainSocketFactory.Policy lbPolicy;
+
+  @Option(names = {"--prewarm"}, defaultValue = "0",
+      description = "The connected idle channels kept per unix socket, default: 0")
+  int prewarm;
+
+  @Option(names = {"--output", "-o"}, description = "Write the response body to this file instead of stdout.")
+  String output;
+
+  @Option(names = {"--segments"}, defaultValue = "0",
+      description = "Download with -o in this many parallel byte ranges, resuming an interrupted download, default: 0")
+  int segments;
+
+  @Option(names = {"--compressed"}, defaultValue = "false",
+      description = "Ask for a gzip/deflate response and decompress it while streaming, default: false")
+  boolean compressed;
+
+  private UnixDomainSocketFactory socketFactory;
+
+  @Option(names = {"--batch", "-b"},
+      description = "Read requests from a file(\"-\" for stdin), one per line: <url> or <method> <url> [data].")
+  String batch;
+
+  @Option(names = {"--concurrency", "-c"}, defaultValue = "64",
+      description = "The max in-flight requests of batch mode, default: 64")
+  int concurrency;
+
+  @Option(names = {"--connect-timeout"}, defaultValue = "10",
+      description = "The connect timeout in seconds, 0 waits forever, default: 10")
+  int connectTimeout;
+
+  @Option(names = {"--read-timeout"}, defaultValue = "86400",
+      description = "The socket read timeout in seconds, 0 waits forever, default: 86400")
+  int readTimeout;
+
+  @Option(names = {"--cache-dir"},
+      description = "Cache the responses in this directory, revalidating them as Cache-Control/ETag/Last-Modified say.")
+  String cacheDir;
+
+  @Option(names = {"--cache-size"}, defaultValue = "104857600",
+      description = "The max bytes of --cache-dir, default: 104857600")
+  long cacheSize;
+
+  @Option(names = {"--cache-stats"}, defaultValue = "false",
+      description = "Print the cache hits, conditional hits and network responses to stderr, default: false")
+  boolean cacheStats;
+
+  private final CacheListener cacheListener = new CacheListener();
+
+  /**
+   * Counts how the responses were served, called by the calls of every thread.
+   */
+  private static final class CacheListener extends EventListener {
+    final AtomicLong hits = new AtomicLong();
+    final AtomicLong conditionalHits = new AtomicLong();
+    final AtomicLong network = new AtomicLong();
+    // The calls that revalidate a cached response, until the server answers.
+    private final Set<Call> revalidating = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void cacheConditionalHit(Call call, Response cachedResponse) {
+      revalidating.add(call);
+    }
+
+    // A 304 revalidation is reported as a cache hit too, with the 304 as its network response.
+    @Override
+    public void cacheHit(Call call, Response response) {
+      revalidating.remove(call);
+      (response.networkResponse() != null ? conditionalHits : hits).incrementAndGet();
+    }
+
+    @Override
+    public void cacheMiss(Call call) {
+      revalidating.remove(call);
+      network.incrementAndGet();
+    }
+
+    // Any other answer to a revalidation is a network response, reported as a miss only if it's cacheable.
+    @Override
+    public void callEnd(Call call) {
+      if (revalidating.remove(call)) {
+        network.incrementAndGet();
+      }
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+      revalidating.remove(call);
+    }
+  }
+
+  private OkHttpClient buildClient() {
+    var b = SharedClients.okHttp()
       .callTimeout(Duration.ofDays(1))
-      .readTimeout(Duration.ofDays(1))
-      .writeTimeout(Duration.ofDays(1))
-      .build();
+      .connectTimeout(Duration.ofSeconds(connectTimeout))
+      .readTimeout(Duration.ofSeconds(readTimeout))
+      .writeTimeout(Duration.ofDays(1));
+    if (!SharedClients.started()) {
+      b.connectionPool(new ConnectionPool(concurrency, 5, TimeUnit.MINUTES));
+    }
 
     // It works for native-image of GraalVM.
-    if (unixSocketAddress != null) {
-      var b = client.newBuilder();
-      b.setSocketFactory$okhttp(
-          new UnixDomainSocketFactory(unixSocketAddress));
-      client = b.build();
+    if (unixSocketAddresses != null) {
+      socketFactory = SharedClients.socketFactory(unixSocketAddresses, lbPolicy, prewarm);
+      b.setSocketFactory$okhttp(socketFactory);
+      // The host of the url is only a placeholder, don't resolve it.
+      b.dns(host -> List.of(InetAddress.getLoopbackAddress()));
+    }
+    if (cacheDir != null) {
+      b.cache(SharedClients.cache(cacheDirectory(), cacheSize)).eventListener(cacheListener);
     }
+    return b.build();
+  }
 
-    var request = new Request.Builder()
+  /**
+   * The host of the url is only a placeholder over unix sockets, so every set of sockets gets its own cache,
+   * the urls of different services would collide otherwise.
+   */
+  private Path cacheDirectory() {
+    var base = Path.of(cacheDir);
+    if (unixSocketAddresses == null) {
+      return base.resolve("tcp");
+    }
+    var sockets = new TreeSet<String>();
+    for (var address : unixSocketAddresses) {
+      sockets.add(Path.of(address).toAbsolutePath().normalize().toString());
+    }
+    return base.resolve("unix-" + Integer.toHexString(String.join(",", sockets).hashCode()));
+  }
+
+  private void closeCache(OkHttpClient client) {
+    var cache = client.cache();
+    if (cache == null) {
+      return;
+    }
+    try {
+      if (cacheStats) {
+        System.err.printf("cache: hits: %d, conditional hits: %d, network: %d, size: %d/%d bytes, at: %s%n",
+            cacheListener.hits.get(), cacheListener.conditionalHits.get(), cacheListener.network.get(),
+            cache.size(), cache.maxSize(), cache.directory());
+      }
+      if (SharedClients.started()) {
+        cache.flush();
+      } else {
+        cache.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private Request buildRequest(String method, String url, String data) {
+    var b = new Request.Builder();
+    // An explicit Accept-Encoding turns off OkHttp's transparent gzip, the body is decoded by decode().
+    if (compressed) {
+      b.header("Accept-Encoding", "gzip, deflate");
+    }
+    return b
         .url(url)
         .method(method, (data != null) ?
           RequestBody.create(data.getBytes(StandardCharsets.UTF_8)) :
           null)
         .build();
+  }
+
+  @Override
+  public void run() {
+    if (batch != null && concurrency < 1) {
+      throw new IllegalArgumentException("--concurrency must be at least 1");
+    }
+    var client = buildClient();
+    try {
+      if (batch != null) {
+        runBatch(client);
+        return;
+      }
+
+      if (segments > 0 && download(client)) {
+        return;
+      }
+
+      try (var response = client.newCall(buildRequest(method, url, data)).execute()) {
+        ResponseBody body = response.body();
+        if (body != null) {
+          try (body; var in = decode(response);
+               var out = output != null ? Files.newOutputStream(Path.of(output)) : System.out) {
+            in.transferTo(out);
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    } finally {
+      closeCache(client);
+      // The daemon keeps the connections and the socket factories for the next commands.
+      if (!SharedClients.started()) {
+        client.connectionPool().evictAll();
+        if (socketFactory != null) {
+          socketFactory.close();
+        }
+      }
+    }
+  }
+
+  private boolean download(OkHttpClient client) {
+    if (output == null) {
+      throw new IllegalArgumentException("--segments needs -o/--output");
+    }
+    try {
+      if (new SegmentedDownload(client, url, Path.of(output), segments).run()) {
+        return true;
+      }
+    } catch (IOException | InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    System.err.println("the server doesn't serve byte ranges of " + url + ", downloading in one stream");
+    return false;
+  }
+
+  /**
+   * Runs every request on its own virtual thread, calling synchronously, with at most {@code concurrency}
+   * in flight. The dispatcher of OkHttp isn't involved, it only runs enqueued calls.
+   */
+  private void runBatch(OkHttpClient client) {
+    var permits = new Semaphore(concurrency);
+    var total = new AtomicLong();
+    var failed = new AtomicLong();
+    var bytes = new AtomicLong();
+    // The requests run on their own threads, which don't see the stdio of a daemon's command.
+    var out = Stdio.out();
+
+    var start = System.nanoTime();
+    try (var exec = Executors.newVirtualThreadPerTaskExecutor();
+         var reader = batch.equals("-") ?
+           new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) :
+           Files.newBufferedReader(Path.of(batch))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.strip();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        Request request;
+        try {
+          request = parseLine(line);
+        } catch (IllegalArgumentException e) {
+          System.out.printf("ERR 0 0.000ms %s %s%n", line, e.getMessage());
+          total.incrementAndGet();
+          failed.incrementAndGet();
+          continue;
+        }
+        permits.acquire();
+        exec.submit(() -> {
+          try {
+            var n = execute(out, client, request);
+            if (n < 0) {
+              failed.incrementAndGet();
+            } else {
+              bytes.addAndGet(n);
+            }
+            total.incrementAndGet();
+          } finally {
+            permits.release();
+          }
+        });
+      }
+    } catch (IOException | InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+
+    var elapsed = (System.nanoTime() - start) / 1e9;
+    System.out.printf("requests: %d, failed: %d, bytes: %d, elapsed: %.2fs, throughput: %.1f req/s, %.2f MB/s%n",
+        total.get(), failed.get(), bytes.get(), elapsed,
+        total.get() / elapsed, bytes.get() / elapsed / (1 << 20));
+  }
+
+  private Request parseLine(String line) {
+    var parts = line.split("\\s+", 3);
+    if (parts.length == 1) {
+      return buildRequest(method, parts[0], data);
+    }
+    return buildRequest(parts[0].toUpperCase(), parts[1], parts.length > 2 ? parts[2] : null);
+  }
+
+  /**
+   * Returns the body stream, decompressing a gzip or deflate Content-Encoding on the fly.
+   */
+  private static InputStream decode(Response response) throws IOException {
+    var in = response.body().byteStream();
+    var encoding = response.header("Content-Encoding");
+    if (response.request().method().equals("HEAD") || response.body().contentLength() == 0) {
+      return in;
+    }
+    if ("gzip".equalsIgnoreCase(encoding)) {
+      return new GZIPInputStream(in, 64 * 1024);
+    }
+    if ("deflate".equalsIgnoreCase(encoding)) {
+      return new InflaterInputStream(in, new Inflater(), 64 * 1024);
+    }
+    return in;
+  }
+
+  /**
+   * Executes one batch line, prints "status bytes time method url", and returns the body size
+   * or -1 if the request failed.
+   */
+  private static long execute(PrintStream out, OkHttpClient client, Request request) {
+    var start = System.nanoTime();
     try (var response = client.newCall(request).execute()) {
+      long n = 0;
       ResponseBody body = response.body();
       if (body != null) {
-        try (body; var in = body.byteStream()) {
-          in.transferTo(System.out);
+        try (body; var in = decode(response)) {
+          n = in.transferTo(OutputStream.nullOutputStream());
         }
       }
+      out.printf("%d %d %.3fms %s %s%n",
+          response.code(), n, (System.nanoTime() - start) / 1e6, request.method(), request.url());
+      return response.isSuccessful() ? n : -1;
     } catch (IOException e) {
-      throw new RuntimeException(e);
+      out.printf("ERR 0 %.3fms %s %s %s%n",
+          (System.nanoTime() - start) / 1e6, request.method(), request.url(), e);
+      return -1;
     }
   }
 }
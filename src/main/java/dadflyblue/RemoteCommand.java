@@ -0,0 +1,133 @@
+package dadflyblue;
+
+import dadflyblue.daemon.Frames;
+import io.quarkus.picocli.runtime.PicocliCommandLineFactory;
+import jakarta.inject.Inject;
+import jdk.net.ExtendedSocketOptions;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+@Command(name = "remote",
+    description = "Runs a command in the `daemon` listening on the unix socket, forwarding stdin, stdout, stderr and the exit code.",
+    mixinStandardHelpOptions = true,
+    versionProvider = VersionProvider.class)
+public class RemoteCommand implements Callable<Integer> {
+
+  static final String DEFAULT_SOCKET = "${sys:java.io.tmpdir}/snowball-${sys:user.name}.sock";
+
+  @Option(names = {"--unix-socket", "-x"}, defaultValue = DEFAULT_SOCKET,
+      description = "The unix socket address of the daemon, default: " + DEFAULT_SOCKET)
+  String unixSocketAddress;
+
+  @Option(names = {"--no-fallback"}, defaultValue = "false",
+      description = "Fail when no daemon is listening, instead of running the command in this process, default: false")
+  boolean noFallback;
+
+  // The options after the command name are its own, see CommandLineConfiguration.
+  @Parameters(paramLabel = "<command>", arity = "1..*",
+      description = "The command line to run, e.g. ok-curl http://localhost:9000/")
+  List<String> command;
+
+  @Inject
+  PicocliCommandLineFactory commandLineFactory;
+
+  @Override
+  public Integer call() {
+    SocketChannel ch;
+    try {
+      ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+      ch.connect(UnixDomainSocketAddress.of(unixSocketAddress));
+    } catch (IOException e) {
+      if (noFallback) {
+        throw new UncheckedIOException("no daemon is listening on " + unixSocketAddress, e);
+      }
+      return commandLineFactory.create().execute(command.toArray(String[]::new));
+    }
+    // Anyone can bind the default path in the tmpdir first, the command line and stdin go only to our own daemon.
+    try {
+      checkPeer(ch);
+    } catch (IOException e) {
+      closeQuietly(ch);
+      throw new UncheckedIOException("can't check who listens on " + unixSocketAddress, e);
+    }
+
+    // Only the channel is closed, the stdin pump may still be writing to the streams.
+    try (ch) {
+      var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 64 * 1024));
+      var out = new Frames.Writer(Channels.newOutputStream(ch));
+      out.writeArgs(command);
+      // A platform daemon thread, so a read of a terminal doesn't hold the exit.
+      var pump = new Thread(() -> pumpStdin(out), "remote-stdin");
+      pump.setDaemon(true);
+      pump.start();
+
+      while (true) {
+        var frame = Frames.read(in);
+        switch (frame.type()) {
+          case Frames.STDOUT -> {
+            System.out.write(frame.payload());
+            System.out.flush();
+          }
+          case Frames.STDERR -> {
+            System.err.write(frame.payload());
+            System.err.flush();
+          }
+          case Frames.EXIT -> {
+            return Frames.exitCode(frame);
+          }
+          default -> throw new IOException("unexpected frame: " + (char) frame.type());
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("lost the daemon on " + unixSocketAddress, e);
+    }
+  }
+
+  private void checkPeer(SocketChannel ch) throws IOException {
+    var user = FileSystems.getDefault().getUserPrincipalLookupService()
+        .lookupPrincipalByName(System.getProperty("user.name"));
+    var peer = ch.supportedOptions().contains(ExtendedSocketOptions.SO_PEERCRED) ?
+        ch.getOption(ExtendedSocketOptions.SO_PEERCRED).user() :
+        Files.getOwner(Path.of(unixSocketAddress));
+    if (!peer.equals(user)) {
+      closeQuietly(ch);
+      throw new IllegalStateException("the daemon on " + unixSocketAddress + " runs as " + peer.getName() +
+          ", not as " + user.getName());
+    }
+  }
+
+  private static void closeQuietly(SocketChannel ch) {
+    try {
+      ch.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  private static void pumpStdin(Frames.Writer out) {
+    var chunk = new byte[64 * 1024];
+    try {
+      int n;
+      while ((n = System.in.read(chunk)) > 0) {
+        out.write(Frames.STDIN, chunk, 0, n);
+      }
+      out.write(Frames.STDIN, chunk, 0, 0);
+    } catch (IOException ignored) {
+      // the command is done
+    }
+  }
+}
@@ -0,0 +1,250 @@
+package dadflyblue;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Downloads one url as N byte ranges in parallel, each on a virtual thread that writes its range into
+ * the preallocated output file at its offset.
+ * <p>
+ * The progress of every range is saved next to the output, in "{@code <output>.part}", every second.
+ * A later run for the same url and output resumes from there if the length and the validator
+ * (a strong ETag, or Last-Modified) are unchanged.
+ */
+final class SegmentedDownload {
+  private static final int CHUNK = 256 * 1024;
+  private static final int RETRIES = 3;
+
+  private final OkHttpClient client;
+  private final String url;
+  private final Path output;
+  private final Path state;
+  private final int segments;
+
+  // a range the server answered without 206, retrying it won't help
+  private static final class RangeRejectedException extends IOException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    RangeRejectedException(String message) {
+      super(message);
+    }
+  }
+
+  private long length;
+  private String validator;
+  private long[] starts;
+  private long[] ends;
+  private AtomicLongArray done;
+
+  SegmentedDownload(OkHttpClient client, String url, Path output, int segments) {
+    this.client = client;
+    this.url = url;
+    this.output = output;
+    this.state = output.resolveSibling(output.getFileName() + ".part");
+    this.segments = segments;
+  }
+
+  /**
+   * Returns false, without touching the output, if the server can't serve ranges of the url, or even
+   * a HEAD of it.
+   */
+  boolean run() throws IOException, InterruptedException {
+    try (var head = client.newCall(new Request.Builder().url(url).head().build()).execute()) {
+      // e.g. a 405 or 501, the GET of the single stream may still work
+      if (!head.isSuccessful()) {
+        return false;
+      }
+      length = parseLong(head.header("Content-Length"));
+      var ranges = "bytes".equalsIgnoreCase(head.header("Accept-Ranges"));
+      if (length <= 0 || !ranges) {
+        return false;
+      }
+      validator = validator(head);
+    }
+
+    var resumed = load();
+    if (!resumed) {
+      plan();
+    }
+    var initial = 0L;
+    for (int i = 0; i < starts.length; i++) {
+      initial += done.get(i);
+    }
+
+    var start = System.nanoTime();
+    try (var file = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+         var exec = Executors.newVirtualThreadPerTaskExecutor();
+         var saver = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().factory())) {
+      if (!resumed) {
+        file.truncate(0);
+      }
+      // a sparse preallocation, the ranges fill it in
+      if (file.size() < length) {
+        file.write(ByteBuffer.allocate(1), length - 1);
+      }
+      saver.scheduleWithFixedDelay(() -> save(file), 1, 1, TimeUnit.SECONDS);
+
+      var futures = new ArrayList<Future<?>>();
+      for (int i = 0; i < starts.length; i++) {
+        final var id = i;
+        futures.add(exec.submit(() -> {
+          fetch(file, id);
+          return null;
+        }));
+      }
+      IOException failure = null;
+      for (var f : futures) {
+        try {
+          f.get();
+        } catch (ExecutionException e) {
+          failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+      }
+      saver.shutdownNow();
+      if (failure != null) {
+        save(file);
+        throw failure;
+      }
+      file.force(false);
+    }
+    Files.deleteIfExists(state);
+
+    var elapsed = (System.nanoTime() - start) / 1e9;
+    System.err.printf("downloaded: %d bytes in %d segments%s, elapsed: %.2fs, throughput: %.2f MB/s%n",
+        length, starts.length, resumed ? ", resumed at " + initial : "", elapsed,
+        (length - initial) / elapsed / (1 << 20));
+    return true;
+  }
+
+  private static long parseLong(String s) {
+    try {
+      return s == null ? -1 : Long.parseLong(s.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static String validator(Response r) {
+    var etag = r.header("ETag");
+    if (etag != null && !etag.startsWith("W/")) {
+      return etag;
+    }
+    var lastModified = r.header("Last-Modified");
+    return lastModified != null ? lastModified : "";
+  }
+
+  private void plan() {
+    var n = (int) Math.max(1, Math.min(segments, length / CHUNK + 1));
+    starts = new long[n];
+    ends = new long[n];
+    done = new AtomicLongArray(n);
+    var size = length / n;
+    for (int i = 0; i < n; i++) {
+      starts[i] = i * size;
+      ends[i] = i == n - 1 ? length - 1 : (i + 1) * size - 1;
+    }
+  }
+
+  private void fetch(FileChannel file, int id) throws IOException {
+    var buffer = ByteBuffer.allocateDirect(CHUNK);
+    for (int attempt = 1; ; attempt++) {
+      var from = starts[id] + done.get(id);
+      if (from > ends[id]) {
+        return;
+      }
+      var b = new Request.Builder().url(url).header("Range", "bytes=" + from + "-" + ends[id]);
+      if (!validator.isEmpty()) {
+        b.header("If-Range", validator);
+      }
+      try (var response = client.newCall(b.build()).execute()) {
+        if (response.code() != 206) {
+          // a 200 means the server ignored the range or the content changed under If-Range
+          throw new RangeRejectedException("GET " + url + " range " + from + "-" + ends[id] + ": " + response.code());
+        }
+        var source = response.body().source();
+        var position = from;
+        while (position <= ends[id]) {
+          buffer.clear().limit((int) Math.min(CHUNK, ends[id] - position + 1));
+          if (source.read(buffer) < 0) {
+            throw new IOException("unexpected end of range " + from + "-" + ends[id] + " at " + position);
+          }
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            var n = file.write(buffer, position);
+            position += n;
+            done.addAndGet(id, n);
+          }
+        }
+        return;
+      } catch (RangeRejectedException e) {
+        throw e;
+      } catch (IOException e) {
+        if (attempt >= RETRIES) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads the saved progress, if it belongs to the same url and content.
+   */
+  private boolean load() throws IOException {
+    if (!Files.exists(state) || !Files.exists(output)) {
+      return false;
+    }
+    var lines = Files.readAllLines(state);
+    if (lines.size() < 4 || !lines.get(0).equals(url) || parseLong(lines.get(1)) != length ||
+        !lines.get(2).equals(validator) || validator.isEmpty()) {
+      return false;
+    }
+    var n = lines.size() - 3;
+    starts = new long[n];
+    ends = new long[n];
+    done = new AtomicLongArray(n);
+    for (int i = 0; i < n; i++) {
+      var parts = lines.get(i + 3).split(" ");
+      starts[i] = Long.parseLong(parts[0]);
+      ends[i] = Long.parseLong(parts[1]);
+      done.set(i, Long.parseLong(parts[2]));
+    }
+    return true;
+  }
+
+  /**
+   * Saves the progress read before forcing the file to disk, so it never claims more than is there.
+   */
+  private synchronized void save(FileChannel file) {
+    try {
+      var lines = new ArrayList<>(List.of(url, Long.toString(length), validator));
+      for (int i = 0; i < starts.length; i++) {
+        lines.add(starts[i] + " " + ends[i] + " " + done.get(i));
+      }
+      file.force(false);
+      var tmp = state.resolveSibling(state.getFileName() + ".tmp");
+      Files.write(tmp, lines);
+      Files.move(tmp, state, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package dadflyblue;
+
+import dadflyblue.unixsocket.UnixDomainSocketFactory;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.http.HttpClient;
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The clients the daemon keeps warm for the commands it runs: one Vertx, the Vert.x http clients by options,
+ * one OkHttp connection pool, the unix socket factories by sockets and the http caches by directory.
+ * <p>
+ * Outside of the daemon every command creates, and closes, its own.
+ */
+final class SharedClients {
+  private static volatile Vertx vertx;
+  private static volatile OkHttpClient okHttp;
+  private static final Map<String, HttpClient> httpClients = new ConcurrentHashMap<>();
+  private static final Map<String, UnixDomainSocketFactory> socketFactories = new ConcurrentHashMap<>();
+  private static final Map<Path, Cache> caches = new ConcurrentHashMap<>();
+
+  private SharedClients() {
+  }
+
+  static synchronized void start() {
+    if (vertx == null) {
+      vertx = Vertx.vertx(new VertxOptions().setPreferNativeTransport(true));
+      okHttp = new OkHttpClient.Builder()
+          .connectionPool(new ConnectionPool(256, 5, TimeUnit.MINUTES))
+          .build();
+    }
+  }
+
+  static boolean started() {
+    return vertx != null;
+  }
+
+  static Vertx vertx(VertxOptions options) {
+    var v = vertx;
+    return v != null ? v : Vertx.vertx(options);
+  }
+
+  /**
+   * Closes {@code v} unless it's the shared one.
+   */
+  static void release(Vertx v) {
+    if (v != vertx) {
+      v.closeAndAwait();
+    }
+  }
+
+  static HttpClient httpClient(Vertx v, HttpClientOptions options) {
+    if (v != vertx) {
+      return v.createHttpClient(options);
+    }
+    return httpClients.computeIfAbsent(options.toJson().encode(), k -> v.createHttpClient(options));
+  }
+
+  /**
+   * A builder sharing the connection pool of the daemon, the caller sets the pool otherwise.
+   */
+  static OkHttpClient.Builder okHttp() {
+    var c = okHttp;
+    return c != null ? c.newBuilder() : new OkHttpClient.Builder();
+  }
+
+  static UnixDomainSocketFactory socketFactory(List<String> sockets, UnixDomainSocketFactory.Policy policy, int prewarm) {
+    if (!started()) {
+      return UnixDomainSocketFactory.create(sockets, policy, prewarm);
+    }
+    // OkHttp pools connections by socket factory, so the same sockets must get the same factory.
+    return socketFactories.computeIfAbsent(sockets + " " + policy + " " + prewarm,
+        k -> UnixDomainSocketFactory.create(sockets, policy, prewarm));
+  }
+
+  /**
+   * The cache of {@code directory}, one instance per directory since they can't share it.
+   */
+  static Cache cache(Path directory, long maxSize) {
+    if (!started()) {
+      return new Cache(directory.toFile(), maxSize);
+    }
+    return caches.computeIfAbsent(directory.toAbsolutePath().normalize(), d -> new Cache(d.toFile(), maxSize));
+  }
+}
@@ -9,7 +9,12 @@ import picocli.CommandLine.Command;
         TestThreadPoolCommand.class,
         VertxCurlCommand.class,
         OkHttpCurlCommand.class,
-        StaticServerCommand.class
+        StaticServerCommand.class,
+        BenchTransportCommand.class,
+        BenchServerCommand.class,
+        UdsProxyCommand.class,
+        DaemonCommand.class,
+        RemoteCommand.class
     },
     versionProvider = VersionProvider.class)
 public class SnowballCommand implements Runnable {
@@ -1,13 +1,43 @@
 package dadflyblue;
 
 
+import dadflyblue.staticserver.CompressionHandler;
+import dadflyblue.staticserver.FileCache;
+import dadflyblue.staticserver.FileCacheHandler;
+import dadflyblue.staticserver.FileIndex;
+import dadflyblue.staticserver.IndexHandler;
+import dadflyblue.staticserver.LargeFileHandler;
+import dadflyblue.staticserver.ListingHandler;
+import dadflyblue.staticserver.MappedFiles;
+import dadflyblue.staticserver.Precompressed;
+import dadflyblue.staticserver.PrecompressedHandler;
+import dadflyblue.staticserver.ServerMetrics;
+import dadflyblue.staticserver.WebRoot;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.vertx.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.net.PemKeyCertOptions;
 import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.http.HttpServer;
+import io.vertx.mutiny.core.net.SocketAddress;
 import io.vertx.mutiny.ext.web.Router;
 import io.vertx.mutiny.ext.web.handler.StaticHandler;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.concurrent.CountDownLatch;
 
 import static io.vertx.ext.web.handler.FileSystemAccess.*;
@@ -22,9 +52,20 @@ public class StaticServerCommand implements Runnable {
   String path;
 
   @Option(names = {"--port", "-p"}, defaultValue = "9000",
-      description = "The serving port of static server, default: 9000")
+      description = "The serving port of static server, 0 disables tcp when serving on unix socket, default: 9000")
   int port;
 
+  @Option(names = {"--unix-socket", "-x"},
+      description = "Also serve on this unix socket address(native transport only).")
+  String unixSocketAddress;
+
+  @Option(names = {"--unix-socket-mode"},
+      description = "The permissions of the unix socket file, e.g. rw-rw----, set before it's reachable, default: by umask")
+  String unixSocketMode;
+
+  // where the servers bind the unix socket, see UnixSockets.staging
+  private String unixSocketBinding;
+
   @Option(names = {"--dir"}, defaultValue = "true",
       description = "If list directory? When it's false, will open \"index.html\", default: true")
   boolean listDir;
@@ -33,21 +74,167 @@ public class StaticServerCommand implements Runnable {
       description = "If can access full file system, starting at \"/\"?, default: false")
   boolean root;
 
+  @Option(names = {"--cache-size"}, defaultValue = "0",
+      description = "The max bytes of the in-memory file cache, 0 disables it, default: 0")
+  long cacheSize;
+
+  @Option(names = {"--cache-max-entry"}, defaultValue = "1048576",
+      description = "The max bytes of a file to be cached, default: 1048576")
+  long cacheMaxEntry;
+
+  @Option(names = {"--cache-revalidate"}, defaultValue = "1000",
+      description = "How long(ms) a cached file is served before checking its mtime again, default: 1000")
+  long cacheRevalidate;
+
+  @Option(names = {"--instances", "-i"},
+      description = "The number of http server instances(event loops) sharing the port, default: number of cores")
+  int instances = Runtime.getRuntime().availableProcessors();
+
+  @Option(names = {"--tcp-fast-open"}, defaultValue = "false",
+      description = "Enable TCP_FASTOPEN(native transport only), default: false")
+  boolean tcpFastOpen;
+
+  @Option(names = {"--tcp-no-delay"}, defaultValue = "true",
+      description = "Enable TCP_NODELAY, default: true")
+  boolean tcpNoDelay;
+
+  @Option(names = {"--reuse-port"}, defaultValue = "true",
+      description = "Enable SO_REUSEPORT(native transport only), default: true")
+  boolean reusePort;
+
+  @Option(names = {"--ssl-cert"},
+      description = "The PEM certificate chain, enables TLS together with --ssl-key.")
+  String sslCert;
+
+  @Option(names = {"--ssl-key"},
+      description = "The PEM private key of --ssl-cert.")
+  String sslKey;
+
+  @Option(names = {"--http2"}, defaultValue = "false",
+      description = "Serve http/2, cleartext h2c with prior knowledge, or h2 via ALPN with TLS, default: false")
+  boolean http2;
+
+  @Option(names = {"--http2-max-streams"}, defaultValue = "100",
+      description = "The max concurrent streams per http/2 connection, default: 100")
+  long http2MaxStreams;
+
+  @Option(names = {"--http2-window-size"}, defaultValue = "65535",
+      description = "The initial http/2 stream flow-control window size, default: 65535")
+  int http2WindowSize;
+
+  @Option(names = {"--large-file-threshold"}, defaultValue = "0",
+      description = "Serve files of at least this many bytes from shared memory-mapped regions, 0 disables it, default: 0")
+  long largeFileThreshold;
+
+  @Option(names = {"--large-file-handles"}, defaultValue = "256",
+      description = "The max large files kept open and mapped, default: 256")
+  int largeFileHandles;
+
+  @Option(names = {"--index"}, defaultValue = "false",
+      description = "Index the metadata of the served tree at startup and watch it for changes, default: false")
+  boolean index;
+
+  @Option(names = {"--metrics"}, defaultValue = "false",
+      description = "Expose request, connection and event loop metrics in Prometheus format, default: false")
+  boolean metrics;
+
+  @Option(names = {"--metrics-path"}, defaultValue = "/metrics",
+      description = "The path of the metrics endpoint, default: /metrics")
+  String metricsPath;
+
+  @Option(names = {"--dir-stream"}, defaultValue = "false",
+      description = "List directories page by page off the event loop, in html, json or ndjson(?format=), default: false")
+  boolean dirStream;
+
+  @Option(names = {"--dir-page-size"}, defaultValue = "1000",
+      description = "The max entries of a directory listing page, default: 1000")
+  int dirPageSize;
+
+  @Option(names = {"--compression"}, defaultValue = "false",
+      description = "Compress responses on the fly(gzip/deflate) for clients accepting it, default: false")
+  boolean compression;
+
+  @Option(names = {"--compression-level"}, defaultValue = "6",
+      description = "The on-the-fly compression level, 1(fastest) to 9(smallest), default: 6")
+  int compressionLevel;
+
+  @Option(names = {"--compression-min-size"}, defaultValue = "1024",
+      description = "The min bytes of a response or file to compress, default: 1024")
+  long compressionMinSize;
+
+  @Option(names = {"--precompress"}, defaultValue = "false",
+      description = "Gzip the compressible files in the background at startup and serve them, or their .br/.gz siblings, by Accept-Encoding, default: false")
+  boolean precompress;
+
+  @Option(names = {"--precompress-dir"},
+      description = "Where the gzipped copies are kept, default: a directory per root under $XDG_CACHE_HOME or ~/.cache, only accessible by the user")
+  String precompressDir;
+
+  FileCache cache;
+  Precompressed precompressed;
+  MappedFiles mappedFiles;
+  FileIndex fileIndex;
+  ServerMetrics serverMetrics;
+
   @Override
   public void run() {
-    var vertx = Vertx.vertx();
+    var vertx = Vertx.vertx(new VertxOptions()
+        .setPreferNativeTransport(true)
+        .setEventLoopPoolSize(Math.max(VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE, instances)));
 
-    var r = Router.router(vertx);
-    r.route("/*").handler(
-        StaticHandler.create(
-            root ? ROOT: RELATIVE, path)
-        .setDirectoryListing(listDir));
+    if (cacheSize > 0) {
+      var c = new FileCache(cacheSize, cacheMaxEntry, cacheRevalidate);
+      Runtime.getRuntime().addShutdownHook(new Thread(() ->
+          System.out.printf("file-cache: %s%n", c.stats())));
+      cache = c;
+    }
+
+    if (index) {
+      var start = System.currentTimeMillis();
+      try {
+        fileIndex = new FileIndex(new WebRoot(path).base());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      fileIndex.build();
+      System.out.printf("file-index: %d entries indexed in %dms%n",
+          fileIndex.size(), System.currentTimeMillis() - start);
+    }
+
+    if (precompress) {
+      var base = new WebRoot(path).base();
+      var dir = precompressDir != null ? Path.of(precompressDir) : defaultPrecompressDir(base);
+      precompressed = new Precompressed(base, dir.toAbsolutePath(), compressionMinSize);
+      precompressed.start();
+    }
+
+    if (largeFileThreshold > 0) {
+      mappedFiles = new MappedFiles(largeFileHandles);
+    }
+
+    if (metrics) {
+      serverMetrics = new ServerMetrics(cache, fileIndex);
+    }
+
+    if (unixSocketAddress != null) {
+      if (!vertx.isNativeTransportEnabled()) {
+        throw new IllegalStateException("unix socket requires native transport",
+            vertx.unavailableNativeTransportCause());
+      }
+      UnixSockets.deleteIfStale(unixSocketAddress);
+      UnixSockets.deleteOnExit(unixSocketAddress);
+      unixSocketBinding = UnixSockets.staging(unixSocketAddress, unixSocketMode);
+    }
 
-    vertx.createHttpServer()
-        .requestHandler(r)
-        .listenAndAwait(port);
+    vertx.deployVerticleAndAwait(ServerVerticle::new,
+        new DeploymentOptions().setInstances(instances));
 
-    System.out.printf("static-server is serving on: [:%d], at: %s%n", port, path);
+    if (unixSocketAddress != null) {
+      UnixSockets.publish(unixSocketBinding, unixSocketAddress, unixSocketMode);
+    }
+
+    System.out.printf("static-server is serving on: [%s], at: %s, instances: %d, native transport: %s%n",
+        listening(), path, instances, vertx.isNativeTransportEnabled());
 
     // Since vertx is serving the requests in an async way,
     // we need to hold the main thread to prevent the process from terminating.
@@ -56,4 +243,120 @@ public class StaticServerCommand implements Runnable {
     } catch (InterruptedException ignored) {
     }
   }
+
+  /**
+   * The copies are served as they are, so they're kept where only the user can write, named by a digest
+   * of the root.
+   */
+  private static Path defaultPrecompressDir(Path base) {
+    var xdg = System.getenv("XDG_CACHE_HOME");
+    var cache = xdg != null && !xdg.isEmpty() ? Path.of(xdg) : Path.of(System.getProperty("user.home"), ".cache");
+    byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256")
+          .digest(base.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    var dir = cache.resolve("snowball").resolve("precompressed").resolve(HexFormat.of().formatHex(digest, 0, 8));
+    var ownerOnly = PosixFilePermissions.fromString("rwx------");
+    try {
+      Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(ownerOnly));
+      // fails unless the user owns it
+      Files.setPosixFilePermissions(dir, ownerOnly);
+    } catch (IOException e) {
+      throw new UncheckedIOException("can't use the precompress directory " + dir, e);
+    }
+    return dir;
+  }
+
+  private String listening() {
+    var tcp = port > 0 ? ":" + port : "";
+    if (unixSocketAddress == null) {
+      return tcp;
+    }
+    return tcp.isEmpty() ? unixSocketAddress : tcp + ", " + unixSocketAddress;
+  }
+
+  private Router router(Vertx vertx) {
+    var r = Router.router(vertx);
+    var webRoot = new WebRoot(path);
+    if (serverMetrics != null) {
+      r.route().handler(serverMetrics::track);
+      r.get(metricsPath).handler(serverMetrics::handle);
+    }
+    if (compression) {
+      r.route().handler(new CompressionHandler(compressionMinSize));
+    }
+    if (fileIndex != null) {
+      r.route("/*").handler(new IndexHandler(webRoot, fileIndex));
+    }
+    if (precompressed != null) {
+      r.route("/*").handler(new PrecompressedHandler(webRoot, precompressed));
+    }
+    if (mappedFiles != null) {
+      r.route("/*").handler(new LargeFileHandler(webRoot, mappedFiles, largeFileThreshold));
+    }
+    if (cache != null) {
+      r.route("/*").handler(new FileCacheHandler(webRoot, cache));
+    }
+    if (listDir && dirStream) {
+      r.route("/*").handler(new ListingHandler(webRoot, dirPageSize));
+    }
+    r.route("/*").handler(
+        StaticHandler.create(
+            root ? ROOT: RELATIVE, path)
+        .setDirectoryListing(listDir));
+    return r;
+  }
+
+  private HttpServerOptions serverOptions() {
+    var options = new HttpServerOptions()
+        .setTcpFastOpen(tcpFastOpen)
+        .setTcpNoDelay(tcpNoDelay)
+        .setReusePort(reusePort)
+        .setCompressionSupported(compression)
+        .setCompressionLevel(compressionLevel);
+    var ssl = sslCert != null && sslKey != null;
+    if (ssl) {
+      options.setSsl(true)
+          .setPemKeyCertOptions(new PemKeyCertOptions().setCertPath(sslCert).setKeyPath(sslKey));
+    }
+    if (http2) {
+      options.setUseAlpn(ssl)
+          .setInitialSettings(new Http2Settings()
+              .setMaxConcurrentStreams(http2MaxStreams)
+              .setInitialWindowSize(http2WindowSize))
+          .setHttp2ConnectionWindowSize((int) Math.min(Integer.MAX_VALUE, http2WindowSize * http2MaxStreams));
+    }
+    return options;
+  }
+
+  /**
+   * One http server per event loop, vertx balances the connections of the shared port among them.
+   */
+  private class ServerVerticle extends AbstractVerticle {
+    @Override
+    public Uni<Void> asyncStart() {
+      var r = router(vertx);
+      if (serverMetrics != null) {
+        serverMetrics.probe(vertx);
+      }
+      var tcp = port > 0 || unixSocketAddress == null ?
+          server(r).listen(port).replaceWithVoid() :
+          Uni.createFrom().voidItem();
+      var uds = unixSocketAddress != null ?
+          server(r).listen(SocketAddress.domainSocketAddress(unixSocketBinding)).replaceWithVoid() :
+          Uni.createFrom().voidItem();
+      return Uni.combine().all().unis(tcp, uds).discardItems();
+    }
+
+    private HttpServer server(Router r) {
+      var server = vertx.createHttpServer(serverOptions()).requestHandler(r);
+      if (serverMetrics != null) {
+        server.connectionHandler(serverMetrics::connected);
+      }
+      return server;
+    }
+  }
 }
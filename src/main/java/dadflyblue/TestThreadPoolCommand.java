@@ -1,12 +1,24 @@
 package dadflyblue;
 
+import dadflyblue.stats.EventRecorder;
+import dadflyblue.stats.LatencyHistogram;
+import dadflyblue.stats.MemorySnapshot;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
+import java.lang.management.ManagementFactory;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Command(name = "test-threadpool",
         mixinStandardHelpOptions = true,
@@ -15,15 +27,79 @@ public class TestThreadPoolCommand implements Runnable {
   @Option(names = {"--works", "-w"}, defaultValue = "10", description = "The number of workers.")
   int count;
 
-  private static void testAndAutoClose(Collection<? extends Callable<Void>> workers, ExecutorService exec, String name) {
+  @Option(names = {"--workload"}, defaultValue = "SLEEP",
+      description = "What a worker does: ${COMPLETION-CANDIDATES}, default: SLEEP. " +
+          "SYNCHRONIZED sleeps holding a monitor(pins virtual threads), LOCK sleeps holding a ReentrantLock.")
+  Workload workload;
+
+  @Option(names = {"--locks"}, defaultValue = "0",
+      description = "The number of monitors/locks shared by the workers, 0 gives each worker its own, default: 0")
+  int locks;
+
+  @Option(names = {"--jfr"}, defaultValue = "false",
+      description = "Record virtual thread pinning with JFR and report it per executor, default: false")
+  boolean jfr;
+
+  @Option(names = {"--vt-parallelism"},
+      description = "Sets jdk.virtualThreadScheduler.parallelism(carrier threads), default: number of cores")
+  Integer vtParallelism;
+
+  @Option(names = {"--vt-max-pool-size"},
+      description = "Sets jdk.virtualThreadScheduler.maxPoolSize(carriers incl. compensation), default: 256")
+  Integer vtMaxPoolSize;
+
+  @Option(names = {"--scale"}, split = ",",
+      description = "Runs the scale mode with these task counts instead, e.g. 10000,100000,1000000")
+  List<Integer> scale;
+
+  @Option(names = {"--platform-limit"}, defaultValue = "10000",
+      description = "Skips the platform thread pool in the scale mode above this task count, default: 10000")
+  int platformLimit;
+
+  @Option(names = {"--events"}, defaultValue = "SUMMARY",
+      description = "How the recorded worker events are printed after each run: ${COMPLETION-CANDIDATES}, default: SUMMARY")
+  Events events;
+
+  @Option(names = {"--events-capacity"}, defaultValue = "8192",
+      description = "The worker events kept per recorder stripe, default: 8192")
+  int eventsCapacity;
+
+  enum Workload {
+    SLEEP, SYNCHRONIZED, LOCK
+  }
+
+  enum Events {
+    NONE, SUMMARY, DUMP
+  }
+
+  static final int STARTED = 0;
+  static final int FINISHED = 1;
+
+  private void testAndAutoClose(Collection<Worker> workers, EventRecorder recorder, ExecutorService exec, String name) {
+    recorder.reset();
+    var pinning = jfr ? new PinningRecorder() : null;
     try (exec) {
       var start = System.currentTimeMillis();
       var fs = exec.invokeAll(workers);
       waitAll(fs);
       var end = System.currentTimeMillis();
       System.out.printf("all workers(%d) from %s returns: %dms%n", workers.size(), name, end - start);
+      switch (events) {
+        case SUMMARY -> recorder.summarize(System.out, "  worker events");
+        case DUMP -> recorder.dump(System.out);
+        case NONE -> {
+        }
+      }
+      if (pinning != null) {
+        reportCarriers(workers);
+        pinning.stopAndReport(end - start);
+      }
     } catch (InterruptedException e) {
       throw new RuntimeException(e);
+    } finally {
+      if (pinning != null) {
+        pinning.close();
+      }
     }
   }
 
@@ -37,28 +113,253 @@ public class TestThreadPoolCommand implements Runnable {
     });
   }
 
+  private static int parallelism() {
+    var p = System.getProperty("jdk.virtualThreadScheduler.parallelism");
+    return p != null ? Integer.parseInt(p) : Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Prints how the virtual threads were spread over the carriers, from the thread names the workers saw.
+   */
+  private static void reportCarriers(Collection<Worker> workers) {
+    var carriers = new HashMap<String, Integer>();
+    for (var w : workers) {
+      var thread = w.threads[(int) w.id];
+      var at = thread == null ? -1 : thread.indexOf('@');
+      if (thread != null && thread.startsWith("VirtualThread") && at >= 0) {
+        carriers.merge(thread.substring(at + 1), 1, Integer::sum);
+      }
+    }
+    if (!carriers.isEmpty()) {
+      var stats = carriers.values().stream().mapToInt(Integer::intValue).summaryStatistics();
+      System.out.printf("  carriers: %d used of parallelism %d, workers started per carrier: min=%d, max=%d%n",
+          carriers.size(), parallelism(), stats.getMin(), stats.getMax());
+    }
+  }
+
+  /**
+   * Streams the JFR virtual thread events in-process while the executor runs.
+   */
+  private static final class PinningRecorder implements AutoCloseable {
+    final RecordingStream rs = new RecordingStream();
+    final Map<String, Integer> sites = new HashMap<>();
+    long pinned;
+    long submitFailed;
+    Duration total = Duration.ZERO;
+    Duration max = Duration.ZERO;
+
+    PinningRecorder() {
+      rs.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+      rs.enable("jdk.VirtualThreadSubmitFailed");
+      rs.onEvent("jdk.VirtualThreadPinned", this::onPinned);
+      rs.onEvent("jdk.VirtualThreadSubmitFailed", e -> submitFailed++);
+      rs.startAsync();
+    }
+
+    private void onPinned(RecordedEvent e) {
+      pinned++;
+      total = total.plus(e.getDuration());
+      if (e.getDuration().compareTo(max) > 0) {
+        max = e.getDuration();
+      }
+      var st = e.getStackTrace();
+      if (st == null || st.getFrames().isEmpty()) {
+        return;
+      }
+      var site = st.getFrames().get(0);
+      for (var f : st.getFrames()) {
+        if (f.getMethod().getType().getName().startsWith("dadflyblue")) {
+          site = f;
+          break;
+        }
+      }
+      sites.merge(site.getMethod().getType().getName() + "." + site.getMethod().getName() +
+          ":" + site.getLineNumber(), 1, Integer::sum);
+    }
+
+    void stopAndReport(long wallMillis) {
+      // stop() flushes and waits until every recorded event has been dispatched.
+      rs.stop();
+      var capacity = parallelism() * wallMillis * 1e6;
+      System.out.printf("  pinned: %d times, total: %dms, max: %dms, carrier time lost to pinning: %.1f%%, submit failed: %d%n",
+          pinned, total.toMillis(), max.toMillis(),
+          capacity > 0 ? 100 * total.toNanos() / capacity : 0, submitFailed);
+      sites.entrySet().stream()
+          .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+          .limit(5)
+          .forEach(s -> System.out.printf("    %6d at %s%n", s.getValue(), s.getKey()));
+    }
+
+    @Override
+    public void close() {
+      rs.close();
+    }
+  }
+
   @Override
   public void run() {
+    // They are read once, when the first virtual thread is created.
+    if (vtParallelism != null) {
+      System.setProperty("jdk.virtualThreadScheduler.parallelism", vtParallelism.toString());
+    }
+    if (vtMaxPoolSize != null) {
+      System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", vtMaxPoolSize.toString());
+    }
+
+    if (scale != null && !scale.isEmpty()) {
+      runScale();
+      return;
+    }
+
     final var random = new SecureRandom();
-    System.out.printf("start to test with worker count: %d%n", count);
+    System.out.printf("start to test with worker count: %d, workload: %s%n", count, workload);
+    var n = locks > 0 ? locks : count;
+    var monitors = new Object[n];
+    var reentrantLocks = new Lock[n];
+    for (int i = 0; i < n; i++) {
+      monitors[i] = new Object();
+      reentrantLocks[i] = new ReentrantLock();
+    }
+    // The carrier of a virtual thread only shows in its name, so it is captured for the pinning report only.
+    var threads = jfr ? new String[count] : null;
+    var recorder = new EventRecorder(eventsCapacity, "started", "finished");
     var workers = new ArrayList<Worker>(count);
     for (int i = 0; i < count; i++) {
-      workers.add(new Worker(1000 + random.nextInt(5000), i));
+      workers.add(new Worker(1000 + random.nextInt(5000), i, workload,
+          monitors[i % n], reentrantLocks[i % n], recorder, threads));
+    }
+
+    testAndAutoClose(workers, recorder, ForkJoinPool.commonPool(), "platform common thread pool");
+    testAndAutoClose(workers, recorder, Executors.newCachedThreadPool(), "platform cached thread pool");
+    testAndAutoClose(workers, recorder, Executors.newVirtualThreadPerTaskExecutor(), "virtual thread pool");
+  }
+
+  /**
+   * Every task records its start, then parks on a gate until all tasks are live, so the memory
+   * snapshot sees them all at once; releasing the gate measures how fast the executor drains them.
+   */
+  private void runScale() {
+    var max = scale.stream().mapToInt(Integer::intValue).max().orElse(0);
+    var submitted = new long[max];
+    var started = new long[max];
+    var ended = new long[max];
+    if (!MemorySnapshot.take().hasNativeMemory()) {
+      System.out.println("native memory is not reported, run the JVM with -XX:NativeMemoryTracking=summary");
+    }
+    for (var n : scale) {
+      System.out.printf("scale: %d tasks%n", n);
+      if (n <= platformLimit) {
+        scaleRun(n, Executors.newCachedThreadPool(), "platform cached thread pool", submitted, started, ended);
+      } else {
+        System.out.printf("  platform cached thread pool: skipped, %d tasks is above --platform-limit%n", n);
+      }
+      scaleRun(n, Executors.newVirtualThreadPerTaskExecutor(), "virtual thread pool", submitted, started, ended);
     }
+  }
 
-    testAndAutoClose(workers, ForkJoinPool.commonPool(), "platform common thread pool");
-    testAndAutoClose(workers, Executors.newCachedThreadPool(), "platform cached thread pool");
-    testAndAutoClose(workers, Executors.newVirtualThreadPerTaskExecutor(), "virtual thread pool");
+  private static void scaleRun(int n, ExecutorService exec, String name,
+                               long[] submitted, long[] started, long[] ended) {
+    var threads = ManagementFactory.getThreadMXBean();
+    var memory = ManagementFactory.getMemoryMXBean();
+    var base = MemorySnapshot.take();
+    threads.resetPeakThreadCount();
+
+    var peakHeap = new long[1];
+    var sampling = new CountDownLatch(1);
+    var sampler = Thread.ofPlatform().daemon().name("heap-sampler").start(() -> {
+      try {
+        do {
+          peakHeap[0] = Math.max(peakHeap[0], memory.getHeapMemoryUsage().getUsed());
+        } while (!sampling.await(10, TimeUnit.MILLISECONDS));
+      } catch (InterruptedException ignored) {
+      }
+    });
+
+    var allStarted = new CountDownLatch(n);
+    var gate = new CountDownLatch(1);
+    var done = new CountDownLatch(n);
+    long released;
+    MemorySnapshot live;
+    try (exec) {
+      var begin = System.nanoTime();
+      for (int i = 0; i < n; i++) {
+        final var id = i;
+        submitted[id] = System.nanoTime();
+        exec.execute(() -> {
+          started[id] = System.nanoTime();
+          allStarted.countDown();
+          try {
+            gate.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          ended[id] = System.nanoTime();
+          done.countDown();
+        });
+      }
+      allStarted.await();
+      var startup = System.nanoTime() - begin;
+      live = MemorySnapshot.take().minus(base);
+      released = System.nanoTime();
+      gate.countDown();
+      done.await();
+      System.out.printf("  %s: all started in %dms, drained in %dms, peak platform threads: %d%n",
+          name, startup / 1_000_000, (System.nanoTime() - released) / 1_000_000, threads.getPeakThreadCount());
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } finally {
+      sampling.countDown();
+    }
+    try {
+      sampler.join();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+
+    var scheduling = new LatencyHistogram();
+    var completion = new LatencyHistogram();
+    for (int i = 0; i < n; i++) {
+      scheduling.record(started[i] - submitted[i]);
+      completion.record(ended[i] - released);
+    }
+    scheduling.print(System.out, "    scheduling(submit -> start)");
+    completion.print(System.out, "    completion(release -> end)");
+    System.out.printf("    heap per task: live %dB, peak %dB, stack chunks: %d(%dB each)%n",
+        live.heapUsed() / n, Math.max(0, peakHeap[0] - base.heapUsed()) / n,
+        live.stackChunks(), live.stackChunks() > 0 ? live.stackChunkBytes() / live.stackChunks() : 0);
+    if (live.hasNativeMemory()) {
+      System.out.printf("    native per task: committed %dB, thread stacks %dB%n",
+          live.nativeCommitted() / n, live.threadCommitted() / n);
+    }
   }
 
-  record Worker(long timeout, long id) implements Callable<Void> {
+  record Worker(long timeout, long id, Workload workload, Object monitor, Lock lock,
+                EventRecorder recorder, String[] threads) implements Callable<Void> {
 
     @Override
     public Void call() {
       try {
-        System.out.println(
-            "worker - " + id + " is working on: " + Thread.currentThread());
-        Thread.sleep(timeout);
+        recorder.record(id, STARTED);
+        if (threads != null) {
+          threads[(int) id] = Thread.currentThread().toString();
+        }
+        switch (workload) {
+          case SLEEP -> Thread.sleep(timeout);
+          case SYNCHRONIZED -> {
+            synchronized (monitor) {
+              Thread.sleep(timeout);
+            }
+          }
+          case LOCK -> {
+            lock.lock();
+            try {
+              Thread.sleep(timeout);
+            } finally {
+              lock.unlock();
+            }
+          }
+        }
+        recorder.record(id, FINISHED);
       } catch (InterruptedException e) {
         throw new RuntimeException(e);
       }
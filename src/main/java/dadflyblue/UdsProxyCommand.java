@@ -0,0 +1,543 @@
+package dadflyblue;
+
+import dadflyblue.stats.LatencyHistogram;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.socket.ChannelInputShutdownReadComplete;
+import io.netty.channel.socket.DuplexChannel;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.vertx.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetServerOptions;
+import io.vertx.core.net.impl.NetSocketInternal;
+import io.vertx.mutiny.core.MultiMap;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.http.HttpClient;
+import io.vertx.mutiny.core.http.HttpServerRequest;
+import io.vertx.mutiny.core.net.NetClient;
+import io.vertx.mutiny.core.net.NetSocket;
+import io.vertx.mutiny.core.net.SocketAddress;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+@Command(name = "uds-proxy", aliases = {"proxy"},
+    description = "Bridges a unix domain socket to a TCP port or the reverse, piping bytes(L4) or proxying http(L7).",
+    mixinStandardHelpOptions = true,
+    versionProvider = VersionProvider.class)
+public class UdsProxyCommand implements Runnable {
+
+  enum Mode {L4, L7}
+
+  @Option(names = {"--listen", "-l"}, required = true,
+      description = "The address to listen on: unix:<path>, <host>:<port>, :<port> or <port>.")
+  String listen;
+
+  @Option(names = {"--target", "-t"}, required = true,
+      description = "The address to forward to: unix:<path>, <host>:<port>, :<port> or <port>.")
+  String target;
+
+  @Option(names = {"--mode", "-m"}, defaultValue = "L4",
+      description = "Pipe raw bytes(L4) or proxy http requests over pooled keep-alive connections(L7): ${COMPLETION-CANDIDATES}, default: L4")
+  Mode mode;
+
+  @Option(names = {"--instances", "-i"},
+      description = "The number of proxy instances(event loops) sharing the listening socket, default: number of cores")
+  int instances = Runtime.getRuntime().availableProcessors();
+
+  @Option(names = {"--connections"}, defaultValue = "64",
+      description = "The max keep-alive upstream connections per instance in L7 mode, default: 64")
+  int connections;
+
+  @Option(names = {"--connect-timeout"}, defaultValue = "10",
+      description = "The upstream connect timeout in seconds, default: 10")
+  int connectTimeout;
+
+  @Option(names = {"--unix-socket-mode"},
+      description = "The permissions of the listening unix socket file, e.g. rw-rw----, set before it's reachable, default: by umask")
+  String unixSocketMode;
+
+  @Option(names = {"--stats-interval"}, defaultValue = "10",
+      description = "Print the traffic and latency of every this many seconds with traffic, 0 disables it, default: 10")
+  int statsInterval;
+
+  @Option(names = {"--log-connections"}, defaultValue = "false",
+      description = "Print the bytes and latency of every connection(L4) or request(L7), default: false")
+  boolean logConnections;
+
+  // Connection-level headers, they are never forwarded (RFC 9110, 7.6.1).
+  private static final Set<String> HOP_BY_HOP = Set.of(
+      "connection", "keep-alive", "proxy-connection", "proxy-authenticate", "proxy-authorization",
+      "te", "trailer", "transfer-encoding", "upgrade");
+
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder active = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final List<LatencyHistogram> histograms = new CopyOnWriteArrayList<>();
+
+  private Address listenAddress;
+  // where the verticles listen, a unix socket with a mode is staged first, see UnixSockets.staging
+  private Address bindAddress;
+  private Address targetAddress;
+
+  /**
+   * A parsed {@code unix:<path>}, {@code <host>:<port>}, {@code :<port>} or {@code <port>}.
+   */
+  record Address(String path, String host, int port) {
+    static Address parse(String s, String defaultHost) {
+      if (s.startsWith("unix:")) {
+        return new Address(s.substring("unix:".length()), null, 0);
+      }
+      var i = s.lastIndexOf(':');
+      var host = i <= 0 ? defaultHost : s.substring(0, i);
+      try {
+        return new Address(null, host, Integer.parseInt(s.substring(i + 1)));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("invalid address: " + s);
+      }
+    }
+
+    boolean isUnix() {
+      return path != null;
+    }
+
+    SocketAddress socketAddress() {
+      return isUnix() ? SocketAddress.domainSocketAddress(path) : SocketAddress.inetSocketAddress(port, host);
+    }
+
+    @Override
+    public String toString() {
+      return isUnix() ? "unix:" + path : host + ":" + port;
+    }
+  }
+
+  @Override
+  public void run() {
+    listenAddress = Address.parse(listen, "0.0.0.0");
+    targetAddress = Address.parse(target, "127.0.0.1");
+
+    var vertx = Vertx.vertx(new VertxOptions()
+        .setPreferNativeTransport(true)
+        .setEventLoopPoolSize(Math.max(VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE, instances)));
+
+    if ((listenAddress.isUnix() || targetAddress.isUnix()) && !vertx.isNativeTransportEnabled()) {
+      throw new IllegalStateException("unix socket requires native transport",
+          vertx.unavailableNativeTransportCause());
+    }
+    bindAddress = listenAddress;
+    if (listenAddress.isUnix()) {
+      UnixSockets.deleteIfStale(listenAddress.path());
+      UnixSockets.deleteOnExit(listenAddress.path());
+      bindAddress = new Address(UnixSockets.staging(listenAddress.path(), unixSocketMode), null, 0);
+    }
+
+    vertx.deployVerticleAndAwait(() -> mode == Mode.L4 ? new L4Verticle() : new L7Verticle(),
+        new DeploymentOptions().setInstances(instances));
+
+    if (listenAddress.isUnix()) {
+      UnixSockets.publish(bindAddress.path(), listenAddress.path(), unixSocketMode);
+    }
+
+    System.out.printf("uds-proxy is forwarding %s -> %s, mode: %s, instances: %d, native transport: %s%n",
+        listenAddress, targetAddress, mode, instances, vertx.isNativeTransportEnabled());
+
+    var total = new LatencyHistogram();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      report(total);
+      printStats("total", accepted.sum(), bytesIn.sum(), bytesOut.sum(), 0, total);
+    }));
+    if (statsInterval > 0) {
+      var last = new long[3];
+      vertx.setPeriodic(statsInterval * 1000L, id -> {
+        var interval = new LatencyHistogram();
+        report(interval);
+        synchronized (total) {
+          total.add(interval);
+        }
+        var now = new long[]{accepted.sum(), bytesIn.sum(), bytesOut.sum()};
+        if (now[0] != last[0] || now[1] != last[1] || now[2] != last[2]) {
+          printStats(statsInterval + "s", now[0] - last[0], now[1] - last[1], now[2] - last[2],
+              statsInterval, interval);
+        }
+        System.arraycopy(now, 0, last, 0, now.length);
+      });
+    }
+
+    // Since vertx is serving the requests in an async way,
+    // we need to hold the main thread to prevent the process from terminating.
+    try {
+      new CountDownLatch(1).await();
+    } catch (InterruptedException ignored) {
+    }
+  }
+
+  /**
+   * Moves what every instance recorded since the last report into {@code into}.
+   */
+  private void report(LatencyHistogram into) {
+    for (var h : histograms) {
+      synchronized (h) {
+        into.add(h);
+        h.reset();
+      }
+    }
+  }
+
+  private void printStats(String title, long n, long in, long out, int seconds, LatencyHistogram h) {
+    var unit = mode == Mode.L4 ? "connections" : "requests";
+    var rate = seconds > 0 ? String.format(Locale.ROOT, " (%.1f/s)", (double) n / seconds) : "";
+    var latency = mode == Mode.L4 ? "connect" : "latency";
+    System.out.printf(Locale.ROOT,
+        "uds-proxy %s: %s: %d%s, active: %d, failed: %d, in: %d bytes, out: %d bytes, " +
+            "%s p50: %.3fms, p99: %.3fms, max: %.3fms%n",
+        title, unit, n, rate, active.sum(), failed.sum(), in, out, latency,
+        h.valueAtPercentile(50) / 1e6, h.valueAtPercentile(99) / 1e6, h.max() / 1e6);
+  }
+
+  private LatencyHistogram newHistogram() {
+    var h = new LatencyHistogram();
+    histograms.add(h);
+    return h;
+  }
+
+  /**
+   * Pipes the bytes of every accepted connection to a new upstream connection, the latency is the upstream connect time.
+   */
+  private class L4Verticle extends AbstractVerticle {
+    private NetClient client;
+    private LatencyHistogram latency;
+
+    @Override
+    public Uni<Void> asyncStart() {
+      latency = newHistogram();
+      client = vertx.createNetClient(new NetClientOptions()
+          .setConnectTimeout(connectTimeout * 1000)
+          .setTcpNoDelay(true));
+      return vertx.createNetServer(new NetServerOptions().setTcpNoDelay(true).setReusePort(true))
+          .connectHandler(this::accept)
+          .listen(bindAddress.socketAddress())
+          .replaceWithVoid();
+    }
+
+    private void accept(NetSocket downstream) {
+      accepted.increment();
+      active.increment();
+      var start = System.nanoTime();
+      var c = new Connection(downstream, start);
+      allowHalfClosure(downstream);
+      // Whatever the client sends, and its end, waits for the upstream connection.
+      var in = new Pipe(c, downstream, true);
+      in.pause();
+      downstream.closeHandler(c::close);
+      client.connect(targetAddress.socketAddress()).subscribe().with(
+          upstream -> {
+            var connected = System.nanoTime() - start;
+            synchronized (latency) {
+              latency.record(connected);
+            }
+            if (c.closed) {
+              upstream.closeAndForget();
+              return;
+            }
+            allowHalfClosure(upstream);
+            c.upstream = upstream;
+            c.connected = connected;
+            upstream.closeHandler(c::close);
+            new Pipe(c, upstream, false).start(downstream);
+            in.start(upstream);
+          },
+          e -> {
+            failed.increment();
+            if (logConnections) {
+              System.out.printf("%s -> %s failed: %s%n", downstream.remoteAddress(), targetAddress, e);
+            }
+            c.close();
+          });
+    }
+
+    /**
+     * One direction of a connection: like {@code pipeTo}, pausing the source while the destination's write queue
+     * is full, but counting the bytes and passing the end of the source's input on as a FIN.
+     */
+    private final class Pipe {
+      final Connection c;
+      final NetSocket from;
+      final boolean in;
+      NetSocket to;
+      boolean paused;
+      boolean ended;
+      boolean finished;
+
+      Pipe(Connection c, NetSocket from, boolean in) {
+        this.c = c;
+        this.from = from;
+        this.in = in;
+        ((NetSocketInternal) from.getDelegate()).eventHandler(event -> {
+          if (event instanceof ChannelInputShutdownReadComplete) {
+            ended = true;
+            finishLater();
+          }
+        });
+        from.exceptionHandler(e -> c.close());
+      }
+
+      void start(NetSocket to) {
+        this.to = to;
+        from.handler(b -> {
+          if (in) {
+            c.in += b.length();
+            bytesIn.add(b.length());
+          } else {
+            c.out += b.length();
+            bytesOut.add(b.length());
+          }
+          to.writeAndForget(b);
+          if (to.writeQueueFull()) {
+            pause();
+            to.drainHandler(this::resume);
+          }
+        });
+        resume();
+      }
+
+      void pause() {
+        paused = true;
+        from.pause();
+      }
+
+      void resume() {
+        paused = false;
+        from.resume();
+        finishLater();
+      }
+
+      // The end of the input is an event, it doesn't wait for the data queued while paused, which resume() delivers
+      // in a task of its own, so the FIN goes after it.
+      private void finishLater() {
+        if (ended) {
+          vertx.runOnContext(this::finish);
+        }
+      }
+
+      private void finish() {
+        if (ended && !paused && to != null && !finished) {
+          finished = true;
+          c.inputEnded(to, in);
+        }
+      }
+    }
+  }
+
+  /**
+   * Keeps a socket open when its peer shuts down its output, the end of the input is an event then,
+   * so a half-closed connection, e.g. a docker attach or exec, still gets the other direction.
+   */
+  private static void allowHalfClosure(NetSocket socket) {
+    channel(socket).config().setOption(ChannelOption.ALLOW_HALF_CLOSURE, true);
+  }
+
+  private static Channel channel(NetSocket socket) {
+    return ((NetSocketInternal) socket.getDelegate()).channelHandlerContext().channel();
+  }
+
+  /**
+   * Both sockets of a connection are on the instance's event loop, so the counters need no synchronization.
+   */
+  private class Connection {
+    final NetSocket downstream;
+    final long start;
+    NetSocket upstream;
+    long connected;
+    long in;
+    long out;
+    boolean downstreamEnded;
+    boolean upstreamEnded;
+    boolean closed;
+
+    Connection(NetSocket downstream, long start) {
+      this.downstream = downstream;
+      this.start = start;
+    }
+
+    /**
+     * Passes the FIN of one side on to {@code to} once what was read before it is written,
+     * and closes the connection when both sides have ended.
+     */
+    void inputEnded(NetSocket to, boolean downstream) {
+      if (downstream) {
+        downstreamEnded = true;
+      } else {
+        upstreamEnded = true;
+      }
+      if (downstreamEnded && upstreamEnded) {
+        close();
+        return;
+      }
+      var channel = channel(to);
+      channel.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(f -> {
+        if (f.isSuccess() && channel instanceof DuplexChannel duplex) {
+          duplex.shutdownOutput();
+        } else {
+          close();
+        }
+      });
+    }
+
+    void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      active.decrement();
+      downstream.closeAndForget();
+      // null when the client left, or the upstream failed, while connecting
+      if (upstream == null) {
+        return;
+      }
+      upstream.closeAndForget();
+      if (logConnections) {
+        System.out.printf(Locale.ROOT, "%s -> %s in: %d, out: %d, connect: %.3fms, duration: %.3fms%n",
+            downstream.remoteAddress(), targetAddress, in, out,
+            connected / 1e6, (System.nanoTime() - start) / 1e6);
+      }
+    }
+  }
+
+  /**
+   * Proxies every request over the instance's pool of keep-alive upstream connections,
+   * the latency is from the request to the end of the response.
+   */
+  private class L7Verticle extends AbstractVerticle {
+    private HttpClient client;
+    private LatencyHistogram latency;
+
+    @Override
+    public Uni<Void> asyncStart() {
+      latency = newHistogram();
+      client = vertx.createHttpClient(new HttpClientOptions()
+          .setMaxPoolSize(connections)
+          .setKeepAlive(true)
+          .setConnectTimeout(connectTimeout * 1000)
+          .setTcpNoDelay(true));
+      return vertx.createHttpServer()
+          .requestHandler(this::proxy)
+          .listen(bindAddress.socketAddress())
+          .replaceWithVoid();
+    }
+
+    private void proxy(HttpServerRequest req) {
+      accepted.increment();
+      active.increment();
+      req.pause();
+      var start = System.nanoTime();
+      var options = new RequestOptions()
+          .setServer(targetAddress.socketAddress().getDelegate())
+          .setMethod(req.method())
+          .setURI(req.uri());
+      client.request(options).subscribe().with(
+          upstream -> {
+            copyHeaders(req.headers(), upstream.headers());
+            var forwarded = req.remoteAddress();
+            if (forwarded != null && forwarded.host() != null) {
+              upstream.headers().add("X-Forwarded-For", forwarded.host());
+            }
+            Uni<io.vertx.mutiny.core.http.HttpClientResponse> sent;
+            if (req.getHeader("Content-Length") != null) {
+              upstream.putHeader("Content-Length", req.getHeader("Content-Length"));
+              sent = upstream.send(req);
+            } else if (req.getHeader("Transfer-Encoding") != null) {
+              upstream.setChunked(true);
+              sent = upstream.send(req);
+            } else {
+              req.resume();
+              sent = upstream.send();
+            }
+            sent.subscribe().with(
+                response -> {
+                  var resp = req.response()
+                      .setStatusCode(response.statusCode())
+                      .setStatusMessage(response.statusMessage());
+                  copyHeaders(response.headers(), resp.headers());
+                  var length = response.getHeader("Content-Length");
+                  if (length != null) {
+                    resp.putHeader("Content-Length", length);
+                  } else if (response.getHeader("Transfer-Encoding") != null || hasBody(req, response.statusCode())) {
+                    // without either, the body ends with the upstream connection, e.g. an HTTP/1.0 server
+                    resp.setChunked(true);
+                  }
+                  // a response cut short must not look complete, so it's reset rather than ended
+                  response.pipe().endOnFailure(false).to(resp).subscribe().with(
+                      v -> done(req, start, resp.getStatusCode()),
+                      e -> {
+                        upstream.reset();
+                        resp.reset();
+                        failed.increment();
+                        done(req, start, resp.getStatusCode());
+                      });
+                },
+                e -> badGateway(req, start, e));
+          },
+          e -> badGateway(req, start, e));
+    }
+
+    private static boolean hasBody(HttpServerRequest req, int status) {
+      return req.method() != HttpMethod.HEAD && status >= 200 && status != 204 && status != 304;
+    }
+
+    private void badGateway(HttpServerRequest req, long start, Throwable e) {
+      failed.increment();
+      req.resume();
+      if (!req.response().headWritten()) {
+        req.response().setStatusCode(502).endAndForget(e.toString());
+      }
+      done(req, start, 502);
+    }
+
+    private void done(HttpServerRequest req, long start, int status) {
+      var elapsed = System.nanoTime() - start;
+      synchronized (latency) {
+        latency.record(elapsed);
+      }
+      active.decrement();
+      var in = req.bytesRead();
+      var out = req.response().bytesWritten();
+      bytesIn.add(in);
+      bytesOut.add(out);
+      if (logConnections) {
+        System.out.printf(Locale.ROOT, "%s %s %s %d in: %d, out: %d, %.3fms%n",
+            req.remoteAddress(), req.method(), req.uri(), status, in, out, elapsed / 1e6);
+      }
+    }
+  }
+
+  private static void copyHeaders(MultiMap from, MultiMap to) {
+    var connection = new ArrayList<String>();
+    for (var value : from.getAll("Connection")) {
+      for (var token : value.split(",")) {
+        connection.add(token.trim().toLowerCase(Locale.ROOT));
+      }
+    }
+    for (var name : from.names()) {
+      var lower = name.toLowerCase(Locale.ROOT);
+      if (HOP_BY_HOP.contains(lower) || connection.contains(lower) || lower.equals("content-length")) {
+        continue;
+      }
+      to.set(name, from.getAll(name));
+    }
+  }
+}
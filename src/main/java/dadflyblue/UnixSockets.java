@@ -0,0 +1,86 @@
+package dadflyblue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * Socket file housekeeping for the servers listening on unix domain sockets.
+ */
+final class UnixSockets {
+  private UnixSockets() {
+  }
+
+  /**
+   * Deletes the socket file left by a crashed process, fails if another process still listens on it.
+   */
+  static void deleteIfStale(String address) {
+    var path = Path.of(address);
+    if (!Files.exists(path)) {
+      return;
+    }
+    try (var ch = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+      ch.connect(UnixDomainSocketAddress.of(path));
+      throw new IllegalStateException("unix socket is in use: " + address);
+    } catch (IOException ignored) {
+      // nobody is listening, it's stale.
+    }
+    try {
+      Files.delete(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static void deleteOnExit(String address) {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        Files.deleteIfExists(Path.of(address));
+      } catch (IOException ignored) {
+      }
+    }));
+  }
+
+  /**
+   * Where to bind a socket that gets {@code mode}: the address in a new owner-only directory next to it,
+   * moved into place by {@link #publish} once the mode is applied, so nobody connects before. Without a
+   * mode it's the address itself.
+   */
+  static String staging(String address, String mode) {
+    if (mode == null) {
+      return address;
+    }
+    var path = Path.of(address).toAbsolutePath();
+    try {
+      // on a posix file system a temp directory is rwx------
+      var dir = Files.createTempDirectory(path.getParent(), ".snowball-");
+      dir.toFile().deleteOnExit();
+      return dir.resolve(path.getFileName()).toString();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Applies the mode to the socket bound at {@link #staging} and moves it to the address.
+   */
+  static void publish(String staging, String address, String mode) {
+    if (mode == null) {
+      return;
+    }
+    var path = Path.of(staging);
+    try {
+      Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(mode));
+      Files.move(path, Path.of(address), StandardCopyOption.ATOMIC_MOVE);
+      Files.delete(path.getParent());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
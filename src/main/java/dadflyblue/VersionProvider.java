@@ -5,17 +5,16 @@ import picocli.CommandLine.IVersionProvider;
 
 public final class VersionProvider implements IVersionProvider {
 
-  final static String version;
-
-  static {
-    var c = ConfigProvider.getConfig();
-    var vp = c.getOptionalValue("version", String.class);
-    version = vp.orElse("null");
+  // Picocli creates the provider for every command, the config is only read when --version is asked.
+  private static final class Holder {
+    static final String version = ConfigProvider.getConfig()
+        .getOptionalValue("version", String.class)
+        .orElse("null");
   }
 
   @Override
   public String[] getVersion() {
-    return new String[]{version};
+    return new String[]{Holder.version};
   }
 
 }
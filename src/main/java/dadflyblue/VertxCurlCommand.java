@@ -1,15 +1,44 @@
 package dadflyblue;
 
+import dadflyblue.daemon.Stdio;
+import dadflyblue.stats.LatencyHistogram;
+import io.netty.buffer.Unpooled;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
 import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.impl.BufferImpl;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.Http2Settings;
+import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
 import io.vertx.core.http.RequestOptions;
 import io.vertx.core.net.SocketAddress;
 import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.core.file.AsyncFile;
+import io.vertx.mutiny.core.http.HttpClient;
+import io.vertx.mutiny.core.http.HttpClientRequest;
 import io.vertx.mutiny.core.http.HttpClientResponse;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 @Command(name = "vertx-curl",
         mixinStandardHelpOptions = true,
         versionProvider = VersionProvider.class)
@@ -30,16 +59,92 @@ public class VertxCurlCommand implements Runnable {
   @Option(names = {"--data", "-d"}, defaultValue = "", description = "The data(payload) to send.")
   String data;
 
+  @Option(names = {"--data-file"}, description = "Stream the data(payload) from this file.")
+  String dataFile;
+
+  @Option(names = {"--data-stdin"}, defaultValue = "false",
+      description = "Stream the data(payload) from stdin, chunked, default: false")
+  boolean dataStdin;
+
+  @Option(names = {"--output", "-o"}, description = "Write the response body to this file instead of stdout.")
+  String output;
+
   @Option(names = {"--method", "-m"}, defaultValue = "GET", description = "The http method.")
   String method;
 
   @Option(names = {"--unix-socket", "-x"}, description = "The unix socket address.")
   String unixSocketAddress;
 
+  @Option(names = {"--rate", "-r"}, defaultValue = "0",
+      description = "The target request rate(req/s) of open-loop load mode, 0 sends a single request, default: 0")
+  int rate;
+
+  @Option(names = {"--duration"}, defaultValue = "10",
+      description = "The duration(seconds) of load mode, default: 10")
+  int duration;
+
+  @Option(names = {"--connections", "-c"}, defaultValue = "8",
+      description = "The max connections of the client pool(http/1.1 and http/2), default: 8")
+  int connections;
+
+  @Option(names = {"--pipelining"}, defaultValue = "1",
+      description = "The http/1.1 pipelining depth per connection, 1 disables pipelining, default: 1")
+  int pipelining;
+
+  @Option(names = {"--insecure", "-k"}, defaultValue = "false",
+      description = "Trust any server certificate, default: false")
+  boolean insecure;
+
+  @Option(names = {"--http2"}, defaultValue = "false",
+      description = "Use http/2, h2 via ALPN with --ssl, otherwise h2c with prior knowledge, default: false")
+  boolean http2;
+
+  @Option(names = {"--http2-max-streams"}, defaultValue = "100",
+      description = "The max concurrent streams multiplexed on one http/2 connection, default: 100")
+  int http2MaxStreams;
+
+  @Option(names = {"--http2-window-size"}, defaultValue = "65535",
+      description = "The initial http/2 stream flow-control window size, default: 65535")
+  int http2WindowSize;
+
+  @Option(names = {"--compressed"}, defaultValue = "false",
+      description = "Ask for a compressed response and decompress it while streaming, default: false")
+  boolean compressed;
+
+  private HttpClientOptions clientOptions() {
+    var options = new HttpClientOptions()
+      .setTryUseCompression(compressed)
+      .setSsl(ssl)
+      .setTrustAll(insecure)
+      .setVerifyHost(!insecure)
+      .setMaxPoolSize(connections)
+      .setPipelining(pipelining > 1)
+      .setPipeliningLimit(Math.max(1, pipelining));
+    if (http2) {
+      options.setProtocolVersion(HttpVersion.HTTP_2)
+        .setUseAlpn(ssl)
+        .setHttp2ClearTextUpgrade(false)
+        .setHttp2MaxPoolSize(connections)
+        .setHttp2MultiplexingLimit(http2MaxStreams)
+        .setInitialSettings(new Http2Settings()
+          .setMaxConcurrentStreams(http2MaxStreams)
+          .setInitialWindowSize(http2WindowSize))
+        .setHttp2ConnectionWindowSize((int) Math.min(Integer.MAX_VALUE, (long) http2WindowSize * http2MaxStreams));
+    }
+    return options;
+  }
+
   @Override
   public void run() {
-    var client = Vertx.vertx(
-      new VertxOptions().setPreferNativeTransport(true)).createHttpClient();
+    // the open-loop schedule is in whole nanoseconds
+    if (rate > TimeUnit.SECONDS.toNanos(1)) {
+      throw new IllegalArgumentException("--rate can't exceed 1000000000 req/s");
+    }
+    var vertx = SharedClients.vertx(
+      new VertxOptions().setPreferNativeTransport(true));
+    var client = SharedClients.httpClient(vertx, clientOptions());
+    // The callbacks run on event loops and workers, which don't inherit the stdio of a daemon's command.
+    var stdin = Stdio.in();
 
     var options = new RequestOptions()
       .setHost(host)
@@ -53,14 +158,213 @@ public class VertxCurlCommand implements Runnable {
       options.setServer(SocketAddress.domainSocketAddress(unixSocketAddress));
     }
 
-    client.request(options)
-        .chain(r -> r.send(data))
-        .onItem().transformToMulti(HttpClientResponse::toMulti)
-        .invoke(System.out::print)
-        .collect().last()
-        .await().indefinitely();
+    if (rate > 0) {
+      new LoadRun(vertx, client, options).run();
+      return;
+    }
+
+    AsyncFile file = null;
+    long size = 0;
+    if (dataFile != null) {
+      size = vertx.fileSystem().propsAndAwait(dataFile).size();
+      file = vertx.fileSystem().openAndAwait(dataFile, new OpenOptions().setRead(true).setWrite(false));
+    }
+    final var upload = file;
+    final var length = size;
+
+    // The body is written as bytes, on a worker since the channel blocks, in the order it arrives.
+    try (WritableByteChannel out = output != null ?
+        FileChannel.open(Path.of(output), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING) :
+        stdout()) {
+      client.request(options)
+          .chain(r -> send(r, upload, length, stdin))
+          .onItem().transformToMulti(HttpClientResponse::toMulti)
+          .emitOn(Infrastructure.getDefaultWorkerPool())
+          .invoke(b -> write(out, b))
+          .collect().last()
+          .await().indefinitely();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    if (output == null && System.console() != null) {
+      System.out.println();
+    }
+  }
+
+  private Uni<HttpClientResponse> send(HttpClientRequest r, AsyncFile file, long length, InputStream stdin) {
+    if (file != null) {
+      return r.putHeader("Content-Length", Long.toString(length)).send(file);
+    }
+    if (dataStdin) {
+      // Back on the request's event loop, the end of a short stdin may otherwise race the pipe being set up.
+      var context = Vertx.currentContext();
+      return r.setChunked(true).send(stdin(stdin).emitOn(context::runOnContext));
+    }
+    return r.send(data);
+  }
 
-    System.out.println();
+  /**
+   * Reads stdin one chunk per request on a worker, so a slow server pauses the reading.
+   */
+  private static Multi<Buffer> stdin(InputStream in) {
+    return Multi.createBy().repeating()
+        .uni(() -> Uni.createFrom().item(() -> readStdin(in))
+            .runSubscriptionOn(Infrastructure.getDefaultWorkerPool()))
+        .until(b -> b.length() == 0);
+  }
+
+  private static Buffer readStdin(InputStream in) {
+    var chunk = new byte[64 * 1024];
+    try {
+      var n = in.read(chunk);
+      return Buffer.buffer(Unpooled.wrappedBuffer(chunk, 0, Math.max(0, n)));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Stdout as a channel that closing leaves open, for what is printed after the body.
+   */
+  private static WritableByteChannel stdout() {
+    var out = Stdio.isRemote() ? Channels.newChannel(Stdio.out()) :
+        new FileOutputStream(FileDescriptor.out).getChannel();
+    return new WritableByteChannel() {
+      @Override
+      public int write(ByteBuffer src) throws IOException {
+        return out.write(src);
+      }
+
+      @Override
+      public boolean isOpen() {
+        return out.isOpen();
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  private static void write(WritableByteChannel out, Buffer b) {
+    try {
+      // the response buffers wrap netty's, written without a copy
+      for (var nio : ((BufferImpl) b.getDelegate()).byteBuf().nioBuffers()) {
+        while (nio.hasRemaining()) {
+          out.write(nio);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * An open-loop run: requests are scheduled at fixed intervals regardless of how fast
+   * responses come back, and latency is measured from the scheduled (intended) send time,
+   * so a stalled server is charged for the requests queued behind it (no coordinated omission).
+   * <p>
+   * All callbacks run on the event loop context of the pacing timer, so the counters
+   * and the histogram are confined to that thread until the run is done.
+   */
+  private class LoadRun {
+    final Vertx vertx;
+    final HttpClient client;
+    final RequestOptions options;
+    final LatencyHistogram histogram = new LatencyHistogram();
+    final CountDownLatch done = new CountDownLatch(1);
+    final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+
+    long start;
+    long end;
+    long sent;
+    long completed;
+    long failures;
+    long badStatus;
+    long bytes;
+    long timer;
+    boolean stopped;
+
+    LoadRun(Vertx vertx, HttpClient client, RequestOptions options) {
+      this.vertx = vertx;
+      this.client = client;
+      this.options = options;
+    }
+
+    void run() {
+      System.out.printf("load %s %s at %d req/s for %ds, connections: %d, %s%n",
+          method, url, rate, duration, connections,
+          http2 ? "http/2 streams: " + http2MaxStreams : "pipelining: " + pipelining);
+
+      vertx.runOnContext(() -> {
+        start = System.nanoTime();
+        timer = vertx.setPeriodic(1, id -> tick());
+      });
+
+      try {
+        if (!done.await(duration + 30L, TimeUnit.SECONDS)) {
+          System.out.println("timeout waiting for in-flight requests, report is partial.");
+        }
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      report();
+      SharedClients.release(vertx);
+    }
+
+    void tick() {
+      var now = System.nanoTime();
+      if (now - start >= TimeUnit.SECONDS.toNanos(duration)) {
+        vertx.cancelTimer(timer);
+        stopped = true;
+        finishIfDrained();
+        return;
+      }
+      for (long due = (now - start) / interval + 1; sent < due; sent++) {
+        send(start + sent * interval);
+      }
+    }
+
+    void send(long intended) {
+      client.request(options)
+          .chain(r -> r.send(data))
+          .chain(r -> r.body().invoke(b -> {
+            bytes += b.length();
+            if (r.statusCode() >= 400) {
+              badStatus++;
+            }
+          }))
+          .subscribe().with(
+              b -> complete(intended),
+              e -> {
+                failures++;
+                complete(intended);
+              });
+    }
+
+    void complete(long intended) {
+      histogram.record(System.nanoTime() - intended);
+      completed++;
+      finishIfDrained();
+    }
+
+    void finishIfDrained() {
+      if (stopped && completed == sent) {
+        end = System.nanoTime();
+        done.countDown();
+      }
+    }
+
+    void report() {
+      var elapsed = ((end > 0 ? end : System.nanoTime()) - start) / 1e9;
+      System.out.printf("requests: %d, completed: %d, errors: %d, status >= 400: %d, bytes read: %d%n",
+          sent, completed, failures, badStatus, bytes);
+      System.out.printf("throughput: %.1f req/s (target: %d req/s), elapsed: %.2fs%n",
+          completed / elapsed, rate, elapsed);
+      histogram.print(System.out, "latency(corrected)");
+    }
   }
 
 }
@@ -0,0 +1,125 @@
+package dadflyblue.daemon;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The protocol between {@code snowball remote} and {@code snowball daemon}: frames of a type byte,
+ * a 4 byte big-endian payload length and the payload.
+ * <ol>
+ *   <li>The client sends one {@link #ARGS} frame, the command line joined by NUL.</li>
+ *   <li>The client then sends its stdin as {@link #STDIN} frames, an empty one is the end of it.</li>
+ *   <li>The daemon sends {@link #STDOUT} and {@link #STDERR} frames as the command writes them,
+ *   and finally one {@link #EXIT} frame with the 4 byte exit code.</li>
+ * </ol>
+ * The client closing the connection interrupts the command.
+ */
+public final class Frames {
+  public static final byte ARGS = 'A';
+  public static final byte STDIN = 'I';
+  public static final byte STDOUT = 'O';
+  public static final byte STDERR = 'E';
+  public static final byte EXIT = 'X';
+
+  private static final int MAX_PAYLOAD = 1 << 20;
+
+  private Frames() {
+  }
+
+  public record Frame(byte type, byte[] payload) {
+  }
+
+  public static Frame read(DataInputStream in) throws IOException {
+    var type = in.readByte();
+    var length = in.readInt();
+    if (length < 0 || length > MAX_PAYLOAD) {
+      throw new IOException("invalid frame length: " + length);
+    }
+    var payload = new byte[length];
+    in.readFully(payload);
+    return new Frame(type, payload);
+  }
+
+  public static String[] args(Frame frame) {
+    if (frame.payload().length == 0) {
+      return new String[0];
+    }
+    return new String(frame.payload(), StandardCharsets.UTF_8).split("\0", -1);
+  }
+
+  public static int exitCode(Frame frame) {
+    return ByteBuffer.wrap(frame.payload()).getInt();
+  }
+
+  /**
+   * Writes whole frames from several threads, e.g. the stdout and stderr of a command.
+   * It locks rather than synchronizes, a virtual thread blocked on a slow peer would pin its carrier.
+   */
+  public static final class Writer {
+    private final DataOutputStream out;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public Writer(OutputStream out) {
+      this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+    }
+
+    /**
+     * Writes and flushes {@code len} bytes as one or more frames, an empty one included.
+     */
+    public void write(byte type, byte[] payload, int off, int len) throws IOException {
+      lock.lock();
+      try {
+        do {
+          var n = Math.min(len, MAX_PAYLOAD);
+          out.writeByte(type);
+          out.writeInt(n);
+          out.write(payload, off, n);
+          off += n;
+          len -= n;
+        } while (len > 0);
+        out.flush();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    public void writeArgs(List<String> args) throws IOException {
+      var payload = String.join("\0", args).getBytes(StandardCharsets.UTF_8);
+      if (payload.length > MAX_PAYLOAD) {
+        throw new IOException("the command line is too long: " + payload.length);
+      }
+      write(ARGS, payload, 0, payload.length);
+    }
+
+    public void writeExit(int code) throws IOException {
+      write(EXIT, ByteBuffer.allocate(4).putInt(code).array(), 0, 4);
+    }
+
+    /**
+     * An output stream sending every write as frames of {@code type}, closing it leaves the connection open.
+     */
+    public OutputStream stream(byte type) {
+      return new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          // an empty frame is the end of a stream
+          if (len > 0) {
+            Writer.this.write(type, b, off, len);
+          }
+        }
+      };
+    }
+  }
+}
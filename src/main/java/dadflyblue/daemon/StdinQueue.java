@@ -0,0 +1,95 @@
+package dadflyblue.daemon;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The stdin of a remote command, filled with the {@link Frames#STDIN} frames by the connection's reader.
+ * The queue is bounded, so a command that reads slowly, or not at all, pushes back on the client.
+ */
+public final class StdinQueue extends InputStream {
+  private static final byte[] EOF = new byte[0];
+
+  private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(16);
+  private volatile boolean closed;
+  // not synchronized, a virtual thread waiting for stdin in it would pin its carrier
+  private final ReentrantLock lock = new ReentrantLock();
+  private byte[] chunk;
+  private int position;
+
+  /**
+   * Queues a chunk, an empty one is the end of the stream.
+   */
+  public void offer(byte[] b) throws InterruptedException {
+    if (!closed) {
+      chunks.put(b.length == 0 ? EOF : b);
+    }
+  }
+
+  /**
+   * Ends the stream, e.g. when the client is gone, dropping what a command didn't read yet.
+   */
+  public void end() {
+    chunks.clear();
+    chunks.offer(EOF);
+  }
+
+  /**
+   * Drops what is queued and what comes later, which also frees a reader blocked in {@link #offer} on a command
+   * that is done without reading all of its stdin.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    end();
+  }
+
+  @Override
+  public int read() throws InterruptedIOException {
+    var b = new byte[1];
+    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws InterruptedIOException {
+    if (len == 0) {
+      return 0;
+    }
+    lock.lock();
+    try {
+      if (chunk == null || position == chunk.length) {
+        if (chunk == EOF || closed) {
+          return -1;
+        }
+        try {
+          chunk = chunks.take();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException("interrupted reading stdin");
+        }
+        position = 0;
+        if (chunk == EOF) {
+          return -1;
+        }
+      }
+      var n = Math.min(len, chunk.length - position);
+      System.arraycopy(chunk, position, b, off, n);
+      position += n;
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int available() {
+    lock.lock();
+    try {
+      return chunk == null || chunk == EOF ? 0 : chunk.length - position;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,283 @@
+package dadflyblue.daemon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * The stdin, stdout and stderr of the command being run, so the invocations of a daemon don't share them.
+ * <p>
+ * {@link #install()} replaces {@code System.in/out/err} with streams routing to the current invocation's,
+ * or to the process's outside of any. The invocation is a thread local of the thread running the command only,
+ * pooled threads outlive the invocation that started them, e.g. event loops, worker pools or OkHttp's. So a
+ * command passes the streams of {@link #in()}, {@link #out()} and {@link #err()}, captured on its own thread,
+ * to the work it runs on others.
+ */
+public final class Stdio {
+  public record Streams(InputStream in, PrintStream out, PrintStream err) {
+  }
+
+  private static final ThreadLocal<Streams> current = new ThreadLocal<>();
+  private static volatile Streams process;
+
+  private Stdio() {
+  }
+
+  public static synchronized void install() {
+    if (process != null) {
+      return;
+    }
+    process = new Streams(System.in, System.out, System.err);
+    System.setIn(new InputStream() {
+      @Override
+      public int read() throws IOException {
+        return in().read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return in().read(b, off, len);
+      }
+
+      @Override
+      public int available() throws IOException {
+        return in().available();
+      }
+    });
+    System.setOut(new RoutingPrintStream(false));
+    System.setErr(new RoutingPrintStream(true));
+  }
+
+  /**
+   * Delegates every call to the current stream without taking a lock of its own, so the commands of a daemon
+   * don't wait for each other's clients. Closing it only flushes, commands close System.out when it's their
+   * output and it must stay open for the next one.
+   */
+  private static final class RoutingPrintStream extends PrintStream {
+    private final boolean err;
+
+    RoutingPrintStream(boolean err) {
+      super(OutputStream.nullOutputStream());
+      this.err = err;
+    }
+
+    private PrintStream target() {
+      return err ? err() : out();
+    }
+
+    @Override
+    public void write(int b) {
+      target().write(b);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+      target().write(buf, off, len);
+    }
+
+    @Override
+    public void write(byte[] buf) throws IOException {
+      target().write(buf);
+    }
+
+    @Override
+    public void writeBytes(byte[] buf) {
+      target().writeBytes(buf);
+    }
+
+    @Override
+    public void flush() {
+      target().flush();
+    }
+
+    @Override
+    public void close() {
+      target().flush();
+    }
+
+    @Override
+    public boolean checkError() {
+      return target().checkError();
+    }
+
+    @Override
+    public void print(boolean b) {
+      target().print(b);
+    }
+
+    @Override
+    public void print(char c) {
+      target().print(c);
+    }
+
+    @Override
+    public void print(int i) {
+      target().print(i);
+    }
+
+    @Override
+    public void print(long l) {
+      target().print(l);
+    }
+
+    @Override
+    public void print(float f) {
+      target().print(f);
+    }
+
+    @Override
+    public void print(double d) {
+      target().print(d);
+    }
+
+    @Override
+    public void print(char[] s) {
+      target().print(s);
+    }
+
+    @Override
+    public void print(String s) {
+      target().print(s);
+    }
+
+    @Override
+    public void print(Object obj) {
+      target().print(obj);
+    }
+
+    @Override
+    public void println() {
+      target().println();
+    }
+
+    @Override
+    public void println(boolean x) {
+      target().println(x);
+    }
+
+    @Override
+    public void println(char x) {
+      target().println(x);
+    }
+
+    @Override
+    public void println(int x) {
+      target().println(x);
+    }
+
+    @Override
+    public void println(long x) {
+      target().println(x);
+    }
+
+    @Override
+    public void println(float x) {
+      target().println(x);
+    }
+
+    @Override
+    public void println(double x) {
+      target().println(x);
+    }
+
+    @Override
+    public void println(char[] x) {
+      target().println(x);
+    }
+
+    @Override
+    public void println(String x) {
+      target().println(x);
+    }
+
+    @Override
+    public void println(Object x) {
+      target().println(x);
+    }
+
+    @Override
+    public PrintStream printf(String format, Object... args) {
+      target().printf(format, args);
+      return this;
+    }
+
+    @Override
+    public PrintStream printf(Locale l, String format, Object... args) {
+      target().printf(l, format, args);
+      return this;
+    }
+
+    @Override
+    public PrintStream format(String format, Object... args) {
+      target().format(format, args);
+      return this;
+    }
+
+    @Override
+    public PrintStream format(Locale l, String format, Object... args) {
+      target().format(l, format, args);
+      return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq) {
+      target().append(csq);
+      return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq, int start, int end) {
+      target().append(csq, start, end);
+      return this;
+    }
+
+    @Override
+    public PrintStream append(char c) {
+      target().append(c);
+      return this;
+    }
+
+    @Override
+    public Charset charset() {
+      return target().charset();
+    }
+  }
+
+  /**
+   * Runs {@code command} with {@code streams} as its stdio.
+   */
+  public static <T> T run(Streams streams, Supplier<T> command) {
+    current.set(streams);
+    try {
+      return command.get();
+    } finally {
+      current.remove();
+    }
+  }
+
+  /**
+   * If the current thread runs a command of a daemon.
+   */
+  public static boolean isRemote() {
+    return current.get() != null;
+  }
+
+  public static InputStream in() {
+    var s = current.get();
+    return s != null ? s.in() : process != null ? process.in() : System.in;
+  }
+
+  public static PrintStream out() {
+    var s = current.get();
+    return s != null ? s.out() : process != null ? process.out() : System.out;
+  }
+
+  public static PrintStream err() {
+    var s = current.get();
+    return s != null ? s.err() : process != null ? process.err() : System.err;
+  }
+}
@@ -0,0 +1,36 @@
+package dadflyblue.staticserver;
+
+import io.vertx.mutiny.ext.web.RoutingContext;
+
+import java.util.function.Consumer;
+
+/**
+ * Opts a response out of the server's on-the-fly compression when it's smaller than the minimum size
+ * or not compressible, by marking it {@code Content-Encoding: identity} right before the headers go out.
+ * The responses left to the compressor get {@code Vary: Accept-Encoding}.
+ */
+public final class CompressionHandler implements Consumer<RoutingContext> {
+  private final long minSize;
+
+  public CompressionHandler(long minSize) {
+    this.minSize = minSize;
+  }
+
+  @Override
+  public void accept(RoutingContext ctx) {
+    ctx.addHeadersEndHandler(() -> {
+      var headers = ctx.response().headers();
+      if (headers.contains("Content-Encoding")) {
+        return;
+      }
+      var length = headers.get("Content-Length");
+      if (!StaticResponses.isCompressible(headers.get("Content-Type")) ||
+          length != null && Long.parseLong(length) < minSize) {
+        headers.set("Content-Encoding", "identity");
+      } else if (!headers.contains("Vary")) {
+        headers.set("Vary", "Accept-Encoding");
+      }
+    });
+    ctx.next();
+  }
+}
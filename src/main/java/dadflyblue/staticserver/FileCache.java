@@ -0,0 +1,124 @@
+package dadflyblue.staticserver;
+
+import io.netty.buffer.Unpooled;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.buffer.impl.BufferImpl;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.buffer.Buffer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded LRU cache of small file contents, held off-heap in read-only buffers that are
+ * shared by all responses. Entries are validated against the file's mtime and size, and
+ * concurrent misses of the same file share one read.
+ */
+public final class FileCache {
+
+  public static final class Entry {
+    final Buffer content;
+    final long size;
+    final long lastModified;
+    final String etag;
+    final String contentType;
+    volatile long checkedAt;
+
+    Entry(Buffer content, long lastModified, String file) {
+      this.content = content;
+      this.size = content.length();
+      this.lastModified = lastModified;
+      this.etag = StaticResponses.etag(size, lastModified);
+      this.contentType = StaticResponses.contentType(file);
+      this.checkedAt = System.currentTimeMillis();
+    }
+  }
+
+  private final long maxBytes;
+  private final long maxEntryBytes;
+  private final long revalidateMillis;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+  private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+  private long bytes;
+
+  final LongAdder hits = new LongAdder();
+  final LongAdder misses = new LongAdder();
+  final LongAdder evictions = new LongAdder();
+
+  public FileCache(long maxBytes, long maxEntryBytes, long revalidateMillis) {
+    this.maxBytes = maxBytes;
+    this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+    this.revalidateMillis = revalidateMillis;
+  }
+
+  public long maxEntryBytes() {
+    return maxEntryBytes;
+  }
+
+  long revalidateMillis() {
+    return revalidateMillis;
+  }
+
+  synchronized Entry get(String file) {
+    return entries.get(file);
+  }
+
+  synchronized void invalidate(String file) {
+    var e = entries.remove(file);
+    if (e != null) {
+      bytes -= e.size;
+    }
+  }
+
+  private synchronized void put(String file, Entry entry) {
+    var old = entries.put(file, entry);
+    if (old != null) {
+      bytes -= old.size;
+    }
+    bytes += entry.size;
+    var it = entries.entrySet().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      var eldest = it.next();
+      if (eldest.getValue() == entry) {
+        continue;
+      }
+      it.remove();
+      bytes -= eldest.getValue().size;
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Reads the file into the cache, sharing the read with other concurrent misses of the same version.
+   */
+  Uni<Entry> load(Vertx vertx, String file, long lastModified) {
+    var key = file + "@" + lastModified;
+    var f = loading.computeIfAbsent(key, k -> vertx.fileSystem().readFile(file)
+        .map(b -> {
+          var direct = Unpooled.unreleasableBuffer(
+              Unpooled.directBuffer(b.length()).writeBytes(((BufferImpl) b.getDelegate()).byteBuf()).asReadOnly());
+          var entry = new Entry(Buffer.buffer(direct), lastModified, file);
+          put(file, entry);
+          return entry;
+        })
+        .subscribeAsCompletionStage());
+    f.whenComplete((e, t) -> loading.remove(key, f));
+    return Uni.createFrom().completionStage(f);
+  }
+
+  synchronized int entries() {
+    return entries.size();
+  }
+
+  synchronized long bytes() {
+    return bytes;
+  }
+
+  public synchronized String stats() {
+    return String.format("hits=%d, misses=%d, evictions=%d, entries=%d, bytes=%d",
+        hits.sum(), misses.sum(), evictions.sum(), entries.size(), bytes);
+  }
+}
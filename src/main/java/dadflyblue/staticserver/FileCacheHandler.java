@@ -0,0 +1,71 @@
+package dadflyblue.staticserver;
+
+import io.vertx.mutiny.ext.web.RoutingContext;
+
+import java.util.function.Consumer;
+
+/**
+ * Serves small regular files from a {@link FileCache}, and passes everything else
+ * (directories, large or missing files) on to the next handler.
+ */
+public final class FileCacheHandler implements Consumer<RoutingContext> {
+  private final WebRoot root;
+  private final FileCache cache;
+
+  public FileCacheHandler(WebRoot root, FileCache cache) {
+    this.root = root;
+    this.cache = cache;
+  }
+
+  @Override
+  public void accept(RoutingContext ctx) {
+    if (!StaticResponses.isGetOrHead(ctx)) {
+      ctx.next();
+      return;
+    }
+    var path = root.resolve(ctx.normalizedPath());
+    if (path == null) {
+      ctx.next();
+      return;
+    }
+    var file = path.toString();
+
+    var entry = cache.get(file);
+    FileMeta indexed = ctx.get(FileMeta.KEY);
+    if (entry != null && (indexed != null ?
+        entry.lastModified == indexed.lastModified() && entry.size == indexed.size() :
+        System.currentTimeMillis() - entry.checkedAt < cache.revalidateMillis())) {
+      cache.hits.increment();
+      serve(ctx, entry);
+      return;
+    }
+
+    FileMeta.lookup(ctx, path).subscribe().with(meta -> {
+      if (meta == null || !meta.regularFile() || meta.size() > cache.maxEntryBytes()) {
+        cache.invalidate(file);
+        ctx.next();
+        return;
+      }
+      if (entry != null && entry.lastModified == meta.lastModified() && entry.size == meta.size()) {
+        entry.checkedAt = System.currentTimeMillis();
+        cache.hits.increment();
+        serve(ctx, entry);
+        return;
+      }
+      cache.misses.increment();
+      cache.load(ctx.vertx(), file, meta.lastModified())
+          .subscribe().with(e -> serve(ctx, e), ctx::fail);
+    });
+  }
+
+  private static void serve(RoutingContext ctx, FileCache.Entry entry) {
+    ctx.put(ServerMetrics.ROUTE, "cache");
+    if (StaticResponses.endIfNotModified(ctx, entry.etag, entry.lastModified)) {
+      return;
+    }
+    ctx.response()
+        .putHeader("Content-Type", entry.contentType)
+        .putHeader("Content-Length", String.valueOf(entry.size))
+        .endAndForget(entry.content);
+  }
+}
@@ -0,0 +1,156 @@
+package dadflyblue.staticserver;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * An in-memory path to {@link FileMeta} index of the served tree. It is walked in parallel at
+ * startup and then kept up to date by a {@link WatchService}, so lookups never touch the file system.
+ * <p>
+ * Only directories that are being watched are authoritative: the index can answer "not found"
+ * for a path only if its parent directory is watched.
+ */
+public final class FileIndex implements AutoCloseable {
+  private final Path base;
+  private final Map<Path, FileMeta> entries = new ConcurrentHashMap<>();
+  private final Set<Path> watched = ConcurrentHashMap.newKeySet();
+  private final WatchService watcher;
+  private volatile boolean watchLimitReported;
+
+  public FileIndex(Path base) throws IOException {
+    this.base = base;
+    this.watcher = base.getFileSystem().newWatchService();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  FileMeta get(Path path) {
+    return entries.get(path);
+  }
+
+  boolean isWatched(Path dir) {
+    return watched.contains(dir);
+  }
+
+  /**
+   * Walks the tree with fork/join and starts watching it for changes.
+   */
+  public void build() {
+    update(base);
+    ForkJoinPool.commonPool().invoke(new Walk(base));
+    Thread.ofPlatform().daemon().name("file-index-watcher").start(this::watch);
+  }
+
+  private final class Walk extends RecursiveAction {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    // a task of this index only, never serialized
+    final transient Path dir;
+
+    Walk(Path dir) {
+      this.dir = dir;
+    }
+
+    @Override
+    protected void compute() {
+      register(dir);
+      var subdirs = new ArrayList<Walk>();
+      try (var stream = Files.newDirectoryStream(dir)) {
+        for (var p : stream) {
+          if (update(p) && !Files.isSymbolicLink(p)) {
+            subdirs.add(new Walk(p));
+          }
+        }
+      } catch (IOException ignored) {
+        // it's gone or not readable, the watcher will tell if it comes back.
+      }
+      invokeAll(subdirs);
+    }
+  }
+
+  private void register(Path dir) {
+    try {
+      dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY, OVERFLOW);
+      watched.add(dir);
+    } catch (IOException e) {
+      if (!watchLimitReported) {
+        watchLimitReported = true;
+        System.out.printf("file-index: cannot watch %s, falling back to stat below it: %s%n", dir, e);
+      }
+    }
+  }
+
+  /**
+   * Stats the path into the index, returns if it's a directory.
+   */
+  private boolean update(Path path) {
+    try {
+      var attrs = Files.readAttributes(path, BasicFileAttributes.class);
+      entries.put(path, FileMeta.of(path, attrs));
+      return attrs.isDirectory();
+    } catch (NoSuchFileException e) {
+      remove(path);
+    } catch (IOException ignored) {
+    }
+    return false;
+  }
+
+  private void remove(Path path) {
+    var removed = entries.remove(path);
+    // only a directory has entries below it worth a scan
+    if (removed != null && removed.directory() || watched.contains(path)) {
+      entries.keySet().removeIf(p -> p.startsWith(path));
+      watched.removeIf(p -> p.startsWith(path));
+    }
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        WatchKey key = watcher.take();
+        var dir = (Path) key.watchable();
+        for (var event : key.pollEvents()) {
+          if (event.kind() == OVERFLOW) {
+            ForkJoinPool.commonPool().invoke(new Walk(dir));
+            continue;
+          }
+          var child = dir.resolve((Path) event.context());
+          if (event.kind() == ENTRY_DELETE) {
+            remove(child);
+          } else if (update(child) && event.kind() == ENTRY_CREATE &&
+              Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+            ForkJoinPool.commonPool().invoke(new Walk(child));
+          }
+        }
+        if (!key.reset()) {
+          watched.remove(dir);
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException ignored) {
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    watcher.close();
+  }
+}
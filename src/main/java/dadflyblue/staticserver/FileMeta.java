@@ -0,0 +1,42 @@
+package dadflyblue.staticserver;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.ext.web.RoutingContext;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The metadata the handlers need to serve a file, either from the {@link FileIndex} or a stat.
+ */
+public record FileMeta(boolean directory, boolean regularFile, long size, long lastModified,
+                       String etag, String contentType) {
+  /**
+   * The routing context key of the metadata already looked up by an earlier handler.
+   */
+  static final String KEY = "snowball.file-meta";
+
+  static FileMeta of(Path path, BasicFileAttributes attrs) {
+    var size = attrs.size();
+    var lastModified = attrs.lastModifiedTime().toMillis();
+    return new FileMeta(attrs.isDirectory(), attrs.isRegularFile(), size, lastModified,
+        StaticResponses.etag(size, lastModified),
+        attrs.isRegularFile() ? StaticResponses.contentType(path.toString()) : null);
+  }
+
+  /**
+   * Returns the metadata put by an earlier handler, or stats the file; the item is null if it doesn't exist.
+   */
+  static Uni<FileMeta> lookup(RoutingContext ctx, Path path) {
+    FileMeta meta = ctx.get(KEY);
+    if (meta != null) {
+      return Uni.createFrom().item(meta);
+    }
+    return ctx.vertx().fileSystem().props(path.toString())
+        .map(props -> new FileMeta(props.isDirectory(), props.isRegularFile(),
+            props.size(), props.lastModifiedTime(),
+            StaticResponses.etag(props.size(), props.lastModifiedTime()),
+            props.isRegularFile() ? StaticResponses.contentType(path.toString()) : null))
+        .onFailure().recoverWithNull();
+  }
+}
@@ -0,0 +1,50 @@
+package dadflyblue.staticserver;
+
+import io.vertx.mutiny.ext.web.RoutingContext;
+
+import java.util.function.Consumer;
+
+/**
+ * Answers 404s and conditional requests straight from the {@link FileIndex}, and hands the
+ * metadata to the next handlers so they don't stat the file again.
+ */
+public final class IndexHandler implements Consumer<RoutingContext> {
+  private final WebRoot root;
+  private final FileIndex index;
+
+  public IndexHandler(WebRoot root, FileIndex index) {
+    this.root = root;
+    this.index = index;
+  }
+
+  @Override
+  public void accept(RoutingContext ctx) {
+    if (!StaticResponses.isGetOrHead(ctx)) {
+      ctx.next();
+      return;
+    }
+    var path = root.resolve(ctx.normalizedPath());
+    if (path == null) {
+      ctx.next();
+      return;
+    }
+    var parent = path.getParent();
+    if (parent == null || !index.isWatched(parent)) {
+      ctx.next();
+      return;
+    }
+
+    var meta = index.get(path);
+    if (meta == null) {
+      ctx.put(ServerMetrics.ROUTE, "index");
+      ctx.fail(404);
+      return;
+    }
+    if (meta.regularFile() && StaticResponses.endIfNotModified(ctx, meta.etag(), meta.lastModified())) {
+      ctx.put(ServerMetrics.ROUTE, "index");
+      return;
+    }
+    ctx.put(FileMeta.KEY, meta);
+    ctx.next();
+  }
+}
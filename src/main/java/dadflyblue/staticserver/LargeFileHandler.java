@@ -0,0 +1,267 @@
+package dadflyblue.staticserver;
+
+import io.netty.buffer.Unpooled;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.core.buffer.Buffer;
+import io.vertx.mutiny.core.http.HttpServerResponse;
+import io.vertx.mutiny.ext.web.RoutingContext;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Serves files above a size threshold, with single and multipart byte ranges, from shared
+ * memory-mapped regions. The bytes go from the page cache to the socket without passing
+ * through the java heap.
+ */
+public final class LargeFileHandler implements Consumer<RoutingContext> {
+  private static final int CHUNK_SIZE = 256 * 1024;
+  // More ranges than this, after merging the overlapping ones, get the whole file.
+  private static final int MAX_RANGES = 16;
+
+  private final WebRoot root;
+  private final MappedFiles files;
+  private final long threshold;
+
+  public LargeFileHandler(WebRoot root, MappedFiles files, long threshold) {
+    this.root = root;
+    this.files = files;
+    this.threshold = threshold;
+  }
+
+  /**
+   * A part of the response: an optional multipart header followed by a byte range of the file.
+   */
+  private record Part(Buffer header, long offset, long length) {
+  }
+
+  @Override
+  public void accept(RoutingContext ctx) {
+    if (!StaticResponses.isGetOrHead(ctx)) {
+      ctx.next();
+      return;
+    }
+    var path = root.resolve(ctx.normalizedPath());
+    if (path == null) {
+      ctx.next();
+      return;
+    }
+    FileMeta.lookup(ctx, path).subscribe().with(meta -> {
+      if (meta == null || !meta.regularFile() || meta.size() < threshold) {
+        ctx.next();
+        return;
+      }
+      serve(ctx, path, meta);
+    });
+  }
+
+  private void serve(RoutingContext ctx, Path path, FileMeta meta) {
+    ctx.put(ServerMetrics.ROUTE, "large-file");
+    var size = meta.size();
+    var lastModified = meta.lastModified();
+    var etag = meta.etag();
+    if (StaticResponses.endIfNotModified(ctx, etag, lastModified)) {
+      return;
+    }
+
+    var response = ctx.response();
+    var contentType = meta.contentType();
+    response.putHeader("Accept-Ranges", "bytes");
+
+    var range = ctx.request().getHeader("Range");
+    var ifRange = ctx.request().getHeader("If-Range");
+    if (ifRange != null && !ifRange.equals(etag)) {
+      range = null;
+    }
+
+    var ranges = range == null ? null : parseRanges(range, size);
+    if (range != null && ranges == null) {
+      response.setStatusCode(416)
+          .putHeader("Content-Range", "bytes */" + size)
+          .endAndForget();
+      return;
+    }
+    if (ranges != null && ranges.size() > MAX_RANGES) {
+      ranges = null;
+    }
+
+    var parts = new ArrayList<Part>();
+    Buffer trailer = null;
+    if (ranges == null) {
+      response.putHeader("Content-Type", contentType);
+      parts.add(new Part(null, 0, size));
+    } else if (ranges.size() == 1) {
+      var r = ranges.get(0);
+      response.setStatusCode(206)
+          .putHeader("Content-Type", contentType)
+          .putHeader("Content-Range", "bytes " + r[0] + "-" + (r[0] + r[1] - 1) + "/" + size);
+      parts.add(new Part(null, r[0], r[1]));
+    } else {
+      var boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+      response.setStatusCode(206)
+          .putHeader("Content-Type", "multipart/byteranges; boundary=" + boundary);
+      for (var r : ranges) {
+        parts.add(new Part(Buffer.buffer("\r\n--" + boundary +
+            "\r\nContent-Type: " + contentType +
+            "\r\nContent-Range: bytes " + r[0] + "-" + (r[0] + r[1] - 1) + "/" + size + "\r\n\r\n"),
+            r[0], r[1]));
+      }
+      trailer = Buffer.buffer("\r\n--" + boundary + "--\r\n");
+    }
+
+    long length = trailer == null ? 0 : trailer.length();
+    for (var p : parts) {
+      length += p.length + (p.header == null ? 0 : p.header.length());
+    }
+    response.putHeader("Content-Length", String.valueOf(length));
+    if (ctx.request().method().name().equals("HEAD")) {
+      response.endAndForget();
+      return;
+    }
+
+    var end = trailer;
+    ctx.vertx().executeBlocking(Uni.createFrom().item(() -> {
+          try {
+            return files.open(path, size, lastModified);
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }))
+        .subscribe().with(
+            file -> {
+              var writer = new Writer(response, file, parts, end);
+              // the file is released once the response is done, whether it ended or the connection closed
+              ctx.addEndHandler().subscribe().with(v -> writer.release(), e -> writer.release());
+              writer.write();
+            },
+            ctx::fail);
+  }
+
+  /**
+   * Parses "bytes=a-b, c-, -n" into {offset, length} pairs sorted by offset, the overlapping and adjacent
+   * ones merged, so repeating a range can't multiply the response. Returns null if none is satisfiable.
+   */
+  static List<long[]> parseRanges(String header, long size) {
+    if (!header.startsWith("bytes=")) {
+      return null;
+    }
+    var ranges = new ArrayList<long[]>();
+    for (var spec : header.substring(6).split(",")) {
+      spec = spec.strip();
+      var dash = spec.indexOf('-');
+      if (dash < 0) {
+        return null;
+      }
+      try {
+        long start, end;
+        if (dash == 0) {
+          var suffix = Long.parseLong(spec.substring(1));
+          start = Math.max(0, size - suffix);
+          end = size - 1;
+        } else {
+          start = Long.parseLong(spec.substring(0, dash));
+          end = dash == spec.length() - 1 ? size - 1 : Math.min(size - 1, Long.parseLong(spec.substring(dash + 1)));
+        }
+        if (start <= end && start < size) {
+          ranges.add(new long[]{start, end - start + 1});
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    if (ranges.isEmpty()) {
+      return null;
+    }
+    ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+    var merged = new ArrayList<long[]>();
+    for (var r : ranges) {
+      var last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+      if (last != null && r[0] <= last[0] + last[1]) {
+        last[1] = Math.max(last[1], r[0] + r[1] - last[0]);
+      } else {
+        merged.add(r);
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Writes the parts chunk by chunk, pausing while the connection's write queue is full.
+   */
+  private static final class Writer {
+    final HttpServerResponse response;
+    final MappedFiles.MappedFile file;
+    final List<Part> parts;
+    final Buffer trailer;
+    int part;
+    long written;
+    boolean headerWritten;
+    boolean ended;
+    boolean released;
+
+    Writer(HttpServerResponse response, MappedFiles.MappedFile file, List<Part> parts, Buffer trailer) {
+      this.response = response;
+      this.file = file;
+      this.parts = parts;
+      this.trailer = trailer;
+    }
+
+    void write() {
+      if (ended) {
+        return;
+      }
+      while (part < parts.size()) {
+        if (response.closed()) {
+          release();
+          return;
+        }
+        if (response.writeQueueFull()) {
+          response.drainHandler(this::write);
+          return;
+        }
+        var p = parts.get(part);
+        if (!headerWritten) {
+          headerWritten = true;
+          if (p.header != null) {
+            response.writeAndForget(p.header);
+          }
+        }
+        if (written < p.length) {
+          ByteBuffer slice;
+          try {
+            slice = file.slice(p.offset + written, (int) Math.min(CHUNK_SIZE, p.length - written));
+          } catch (RuntimeException e) {
+            release();
+            response.reset();
+            return;
+          }
+          written += slice.remaining();
+          response.writeAndForget(Buffer.buffer(Unpooled.wrappedBuffer(slice)));
+          continue;
+        }
+        part++;
+        written = 0;
+        headerWritten = false;
+      }
+      ended = true;
+      if (trailer != null) {
+        response.endAndForget(trailer);
+      } else {
+        response.endAndForget();
+      }
+      // the written slices keep their regions mapped
+      release();
+    }
+
+    void release() {
+      if (!released) {
+        released = true;
+        file.release();
+      }
+    }
+  }
+}
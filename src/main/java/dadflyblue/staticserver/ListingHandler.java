@@ -0,0 +1,344 @@
+package dadflyblue.staticserver;
+
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.json.JsonObject;
+import io.vertx.mutiny.core.http.HttpServerResponse;
+import io.vertx.mutiny.ext.web.RoutingContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Lists directories without building the whole listing in memory, and without touching the
+ * file system on the event loop.
+ * <p>
+ * Query parameters:
+ * <ul>
+ *   <li>{@code format}: html(default), json or ndjson.</li>
+ *   <li>{@code sort}: name(default), -name, or none to stream every entry in directory order.</li>
+ *   <li>{@code limit} and {@code after}: the page size and the cursor(the last name of the previous page).</li>
+ * </ul>
+ * A sorted page is selected with a bounded heap in one pass over the directory, so its cost is
+ * O(entries) time but only O(limit) memory.
+ */
+public final class ListingHandler implements Consumer<RoutingContext> {
+  private static final int BATCH = 512;
+
+  private final WebRoot root;
+  private final int pageSize;
+
+  public ListingHandler(WebRoot root, int pageSize) {
+    this.root = root;
+    this.pageSize = pageSize;
+  }
+
+  private enum Format {
+    HTML("text/html;charset=UTF-8"),
+    JSON("application/json"),
+    NDJSON("application/x-ndjson");
+
+    final String contentType;
+
+    Format(String contentType) {
+      this.contentType = contentType;
+    }
+  }
+
+  private record Item(String name, boolean directory) {
+  }
+
+  private record Page(List<Item> items, String next) {
+  }
+
+  @Override
+  public void accept(RoutingContext ctx) {
+    if (!StaticResponses.isGetOrHead(ctx)) {
+      ctx.next();
+      return;
+    }
+    var dir = root.resolve(ctx.normalizedPath());
+    if (dir == null) {
+      ctx.next();
+      return;
+    }
+    FileMeta.lookup(ctx, dir).subscribe().with(meta -> {
+      if (meta == null || !meta.directory()) {
+        ctx.next();
+        return;
+      }
+      list(ctx, dir);
+    });
+  }
+
+  private void list(RoutingContext ctx, Path dir) {
+    var requestPath = ctx.normalizedPath();
+    if (!requestPath.endsWith("/")) {
+      ctx.response().setStatusCode(301).putHeader("Location", requestPath + "/").endAndForget();
+      return;
+    }
+    ctx.put(ServerMetrics.ROUTE, "listing");
+
+    var request = ctx.request();
+    Format format;
+    try {
+      format = Format.valueOf(request.getParam("format", "html").toUpperCase());
+    } catch (IllegalArgumentException e) {
+      ctx.fail(400);
+      return;
+    }
+    var sort = request.getParam("sort", "name");
+    var after = request.getParam("after");
+    int limit;
+    try {
+      limit = Math.max(1, Math.min(pageSize, Integer.parseInt(request.getParam("limit", String.valueOf(pageSize)))));
+    } catch (NumberFormatException e) {
+      ctx.fail(400);
+      return;
+    }
+
+    var response = ctx.response()
+        .setChunked(true)
+        .putHeader("Content-Type", format.contentType);
+    if (request.method().name().equals("HEAD")) {
+      response.endAndForget();
+      return;
+    }
+
+    if (sort.equals("none")) {
+      new Streamer(ctx, dir, format).start();
+      return;
+    }
+    var desc = sort.equals("-name");
+    var order = desc ? "-name" : "name";
+    ctx.vertx().executeBlocking(Uni.createFrom().item(() -> page(dir, after, desc, limit)))
+        .subscribe().with(page -> {
+          var sb = new StringBuilder(64 * page.items.size() + 256);
+          begin(sb, format, requestPath);
+          for (int i = 0; i < page.items.size(); i++) {
+            item(sb, format, requestPath, page.items.get(i), i == 0);
+          }
+          String nextHref = null;
+          if (page.next != null) {
+            nextHref = "?sort=" + order + "&limit=" + limit + "&format=" + format.name().toLowerCase() +
+                "&after=" + encode(page.next);
+          }
+          end(sb, format, page.next, nextHref);
+          response.endAndForget(sb.toString());
+        }, ctx::fail);
+  }
+
+  private static Page page(Path dir, String after, boolean desc, int limit) {
+    Comparator<String> order = desc ? Comparator.reverseOrder() : Comparator.naturalOrder();
+    // the head is the last of the first (limit + 1) names seen so far.
+    var heap = new PriorityQueue<String>(limit + 2, order.reversed());
+    try (var stream = Files.newDirectoryStream(dir)) {
+      for (var p : stream) {
+        var name = p.getFileName().toString();
+        if (after != null && order.compare(name, after) <= 0) {
+          continue;
+        }
+        if (heap.size() <= limit) {
+          heap.add(name);
+        } else if (order.compare(name, heap.peek()) < 0) {
+          heap.poll();
+          heap.add(name);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    var names = new ArrayList<>(heap);
+    names.sort(order);
+    String next = null;
+    if (names.size() > limit) {
+      names.remove(names.size() - 1);
+      next = names.get(names.size() - 1);
+    }
+    var items = new ArrayList<Item>(names.size());
+    for (var name : names) {
+      items.add(new Item(name, Files.isDirectory(dir.resolve(name))));
+    }
+    return new Page(items, next);
+  }
+
+  /**
+   * Streams every entry in directory order, reading a batch on a worker thread and writing it
+   * on the event loop, and waiting for the connection to drain before reading the next batch.
+   */
+  private static final class Streamer {
+    final RoutingContext ctx;
+    final HttpServerResponse response;
+    final Path dir;
+    final Format format;
+    final String requestPath;
+    // opened on a worker, closed on the event loop, so both under the lock
+    DirectoryStream<Path> stream;
+    boolean closed;
+    Iterator<Path> it;
+    boolean first = true;
+
+    Streamer(RoutingContext ctx, Path dir, Format format) {
+      this.ctx = ctx;
+      this.response = ctx.response();
+      this.dir = dir;
+      this.format = format;
+      this.requestPath = ctx.normalizedPath();
+    }
+
+    void start() {
+      // a drain never comes once the client is gone, the stream is closed here instead
+      response.closeHandler(this::close);
+      response.exceptionHandler(t -> close());
+      var sb = new StringBuilder();
+      begin(sb, format, requestPath);
+      response.writeAndForget(sb.toString());
+      next();
+    }
+
+    void next() {
+      if (response.closed()) {
+        close();
+        return;
+      }
+      if (response.writeQueueFull()) {
+        response.drainHandler(this::next);
+        return;
+      }
+      ctx.vertx().executeBlocking(Uni.createFrom().item(this::read))
+          .subscribe().with(items -> {
+            if (response.closed()) {
+              close();
+              return;
+            }
+            var sb = new StringBuilder(64 * items.size() + 64);
+            for (var item : items) {
+              item(sb, format, requestPath, item, first);
+              first = false;
+            }
+            if (items.size() < BATCH) {
+              close();
+              end(sb, format, null, null);
+              response.endAndForget(sb.toString());
+              return;
+            }
+            response.writeAndForget(sb.toString());
+            next();
+          }, t -> {
+            close();
+            response.reset();
+          });
+    }
+
+    private List<Item> read() {
+      synchronized (this) {
+        if (closed) {
+          return List.of();
+        }
+        if (stream == null) {
+          try {
+            stream = Files.newDirectoryStream(dir);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          it = stream.iterator();
+        }
+      }
+      var items = new ArrayList<Item>(BATCH);
+      while (items.size() < BATCH && it.hasNext()) {
+        var p = it.next();
+        items.add(new Item(p.getFileName().toString(), Files.isDirectory(p)));
+      }
+      return items;
+    }
+
+    private synchronized void close() {
+      closed = true;
+      if (stream != null) {
+        try {
+          stream.close();
+        } catch (IOException ignored) {
+        }
+        stream = null;
+      }
+    }
+  }
+
+  private static void begin(StringBuilder sb, Format format, String path) {
+    switch (format) {
+      case HTML -> sb.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Index of ")
+          .append(escape(path)).append("</title></head><body><h1>Index of ").append(escape(path))
+          .append("</h1>\n<ul>\n");
+      case JSON -> sb.append("{\"path\":").append(quote(path)).append(",\"entries\":[");
+      case NDJSON -> {
+      }
+    }
+  }
+
+  private static void item(StringBuilder sb, Format format, String path, Item item, boolean first) {
+    var name = item.directory ? item.name + "/" : item.name;
+    switch (format) {
+      case HTML -> sb.append("<li><a href=\"").append(escape(path + encode(item.name)))
+          .append(item.directory ? "/" : "").append("\">").append(escape(name)).append("</a></li>\n");
+      case JSON -> sb.append(first ? "" : ",").append(json(item));
+      case NDJSON -> sb.append(json(item)).append('\n');
+    }
+  }
+
+  private static void end(StringBuilder sb, Format format, String next, String nextHref) {
+    switch (format) {
+      case HTML -> {
+        sb.append("</ul>\n");
+        if (nextHref != null) {
+          sb.append("<a href=\"").append(escape(nextHref)).append("\">next</a>\n");
+        }
+        sb.append("</body></html>\n");
+      }
+      case JSON -> sb.append("],\"next\":").append(next == null ? "null" : quote(next)).append("}\n");
+      case NDJSON -> {
+        if (next != null) {
+          sb.append("{\"next\":").append(quote(next)).append("}\n");
+        }
+      }
+    }
+  }
+
+  private static String json(Item item) {
+    return new JsonObject().put("name", item.name).put("dir", item.directory).encode();
+  }
+
+  private static String quote(String s) {
+    var encoded = new JsonObject().put("s", s).encode();
+    return encoded.substring(5, encoded.length() - 1);
+  }
+
+  private static String encode(String s) {
+    return URLEncoder.encode(s, StandardCharsets.UTF_8).replace("+", "%20");
+  }
+
+  private static String escape(String s) {
+    var sb = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) {
+      var c = s.charAt(i);
+      switch (c) {
+        case '<' -> sb.append("&lt;");
+        case '>' -> sb.append("&gt;");
+        case '&' -> sb.append("&amp;");
+        case '"' -> sb.append("&quot;");
+        case '\'' -> sb.append("&#39;");
+        default -> sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,149 @@
+package dadflyblue.staticserver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps large files open and memory-mapped, so that concurrent (range) requests for the same
+ * file share one handle and the page cache, instead of reopening and copying it per request.
+ */
+public final class MappedFiles {
+  static final int REGION_SIZE = 1 << 30;
+
+  private final int maxFiles;
+  private final ConcurrentHashMap<String, MappedFile> files = new ConcurrentHashMap<>();
+  private final AtomicLong clock = new AtomicLong();
+
+  public MappedFiles(int maxFiles) {
+    this.maxFiles = maxFiles;
+  }
+
+  /**
+   * One open file, counted by the map while it's in there and by every response writing it. Its channel is
+   * closed when the last of them releases it, a replaced or evicted file stays usable by the writes in flight.
+   */
+  public final class MappedFile {
+    final long size;
+    final long lastModified;
+    private final FileChannel channel;
+    private final AtomicReferenceArray<MappedByteBuffer> regions;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile long lastUsed;
+
+    private MappedFile(Path path, long size, long lastModified) throws IOException {
+      this.channel = FileChannel.open(path, StandardOpenOption.READ);
+      this.size = size;
+      this.lastModified = lastModified;
+      this.regions = new AtomicReferenceArray<>((int) ((size + REGION_SIZE - 1) / REGION_SIZE));
+      this.lastUsed = clock.incrementAndGet();
+    }
+
+    /**
+     * Returns a view of at most {@code length} bytes at {@code offset}, not crossing a region boundary.
+     */
+    ByteBuffer slice(long offset, int length) {
+      var index = (int) (offset / REGION_SIZE);
+      var region = regions.get(index);
+      if (region == null) {
+        region = map(index);
+      }
+      var start = (int) (offset % REGION_SIZE);
+      return region.slice(start, Math.min(length, region.capacity() - start));
+    }
+
+    private synchronized MappedByteBuffer map(int index) {
+      var region = regions.get(index);
+      if (region == null) {
+        var position = (long) index * REGION_SIZE;
+        try {
+          region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        regions.set(index, region);
+      }
+      return region;
+    }
+
+    /**
+     * Takes a reference, false if the file was already closed.
+     */
+    private boolean retain() {
+      for (int n = references.get(); n > 0; n = references.get()) {
+        if (references.compareAndSet(n, n + 1)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Drops a reference taken by {@link #open}, the last one closes the file.
+     */
+    void release() {
+      if (references.decrementAndGet() == 0) {
+        try {
+          // the mapped regions stay valid until they are garbage collected.
+          channel.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the shared mapping of the file, reopening it if the file was changed, with a reference the caller
+   * must {@link MappedFile#release()} when it's done with it. It may block.
+   */
+  MappedFile open(Path path, long size, long lastModified) throws IOException {
+    var key = path.toString();
+    while (true) {
+      MappedFile f;
+      try {
+        f = files.compute(key, (k, old) -> {
+          if (old != null && old.size == size && old.lastModified == lastModified) {
+            return old;
+          }
+          try {
+            var opened = new MappedFile(path, size, lastModified);
+            if (old != null) {
+              old.release();
+            }
+            return opened;
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      // it may have been evicted, and closed, in the meantime
+      if (f.retain()) {
+        f.lastUsed = clock.incrementAndGet();
+        evict();
+        return f;
+      }
+    }
+  }
+
+  private void evict() {
+    while (files.size() > maxFiles) {
+      files.entrySet().stream()
+          .min((a, b) -> Long.compare(a.getValue().lastUsed, b.getValue().lastUsed))
+          .ifPresent(e -> {
+            if (files.remove(e.getKey(), e.getValue())) {
+              e.getValue().release();
+            }
+          });
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package dadflyblue.staticserver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The precompressed variants of the compressible files under a base directory.
+ * <p>
+ * A ".br" or ".gz" sibling that is at least as new as its file is used as is. Otherwise the file is
+ * gzipped, at the best level, into the cache directory under the same relative path. The gzip copy's
+ * mtime is set to the source's, so the next start can tell whether it is still current. A variant
+ * that saves less than 10% is dropped.
+ */
+public final class Precompressed {
+  public record Variant(Path file, String encoding, long size, long sourceSize, long sourceModified) {
+  }
+
+  private final Path base;
+  private final Path cacheDir;
+  private final long minSize;
+  private final Map<Path, Variant> brotli = new ConcurrentHashMap<>();
+  private final Map<Path, Variant> gzip = new ConcurrentHashMap<>();
+  private final Set<Path> refreshing = ConcurrentHashMap.newKeySet();
+  private final LongAdder files = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+
+  public Precompressed(Path base, Path cacheDir, long minSize) {
+    this.base = base;
+    this.cacheDir = cacheDir;
+    this.minSize = minSize;
+  }
+
+  /**
+   * Compresses the tree in parallel on a background thread, the handler serves the variants as they appear.
+   */
+  public void start() {
+    Thread.ofPlatform().daemon().name("precompress").start(() -> {
+      var start = System.currentTimeMillis();
+      try (var paths = Files.walk(base)) {
+        paths.parallel().forEach(this::compress);
+      } catch (IOException | UncheckedIOException e) {
+        System.err.printf("precompress: walking %s failed: %s%n", base, e);
+      }
+      System.out.printf("precompress: %d variants, %d -> %d bytes in %dms%n",
+          files.sum(), bytesIn.sum(), bytesOut.sum(), System.currentTimeMillis() - start);
+    });
+  }
+
+  public Variant get(Path file, String encoding) {
+    return (encoding.equals("br") ? brotli : gzip).get(file);
+  }
+
+  /**
+   * Drops the variants of a changed file and compresses it again in the background.
+   */
+  public void refresh(Path file) {
+    brotli.remove(file);
+    gzip.remove(file);
+    if (refreshing.add(file)) {
+      ForkJoinPool.commonPool().execute(() -> {
+        try {
+          compress(file);
+        } finally {
+          refreshing.remove(file);
+        }
+      });
+    }
+  }
+
+  private void compress(Path file) {
+    var name = file.getFileName().toString();
+    if (name.endsWith(".gz") || name.endsWith(".br") || file.startsWith(cacheDir)) {
+      return;
+    }
+    try {
+      var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+      if (!attrs.isRegularFile() || attrs.size() < minSize ||
+          !StaticResponses.isCompressible(StaticResponses.contentType(name))) {
+        return;
+      }
+      var size = attrs.size();
+      var modified = attrs.lastModifiedTime().toMillis();
+
+      var br = sibling(file, ".br", modified);
+      if (br != null) {
+        brotli.put(file, new Variant(br, "br", Files.size(br), size, modified));
+      }
+      var gz = sibling(file, ".gz", modified);
+      if (gz == null) {
+        gz = cacheDir.resolve(base.relativize(file) + ".gz");
+        if (!Files.exists(gz) || Files.getLastModifiedTime(gz).toMillis() != modified) {
+          gzip(file, gz, modified);
+        }
+      }
+      var gzSize = Files.size(gz);
+      if (gzSize > size * 9 / 10) {
+        return;
+      }
+      gzip.put(file, new Variant(gz, "gzip", gzSize, size, modified));
+      files.increment();
+      bytesIn.add(size);
+      bytesOut.add(gzSize);
+    } catch (IOException e) {
+      // vanished or unreadable, it's served uncompressed
+    }
+  }
+
+  private static Path sibling(Path file, String suffix, long modified) throws IOException {
+    var s = file.resolveSibling(file.getFileName() + suffix);
+    return Files.isRegularFile(s) && Files.getLastModifiedTime(s).toMillis() >= modified ? s : null;
+  }
+
+  private static void gzip(Path file, Path gz, long modified) throws IOException {
+    Files.createDirectories(gz.getParent());
+    var tmp = Files.createTempFile(gz.getParent(), gz.getFileName().toString(), ".tmp");
+    try {
+      try (var in = Files.newInputStream(file);
+           var out = new GZIPOutputStream(Files.newOutputStream(tmp), 64 * 1024) {
+             {
+               def.setLevel(Deflater.BEST_COMPRESSION);
+             }
+           }) {
+        in.transferTo(out);
+      }
+      Files.setLastModifiedTime(tmp, FileTime.fromMillis(modified));
+      Files.move(tmp, gz, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package dadflyblue.staticserver;
+
+import io.vertx.mutiny.ext.web.RoutingContext;
+
+import java.util.function.Consumer;
+
+/**
+ * Serves the precompressed variant of a file that the client accepts, picked by the q-values of
+ * Accept-Encoding(br wins a tie). Range requests and everything else go on to the next handler.
+ */
+public final class PrecompressedHandler implements Consumer<RoutingContext> {
+  private final WebRoot root;
+  private final Precompressed precompressed;
+
+  public PrecompressedHandler(WebRoot root, Precompressed precompressed) {
+    this.root = root;
+    this.precompressed = precompressed;
+  }
+
+  @Override
+  public void accept(RoutingContext ctx) {
+    if (!StaticResponses.isGetOrHead(ctx) || ctx.request().getHeader("Range") != null) {
+      ctx.next();
+      return;
+    }
+    var path = root.resolve(ctx.normalizedPath());
+    if (path == null) {
+      ctx.next();
+      return;
+    }
+    var br = precompressed.get(path, "br");
+    var gz = precompressed.get(path, "gzip");
+    if (br == null && gz == null) {
+      ctx.next();
+      return;
+    }
+    // the identity response of a file with variants differs by Accept-Encoding too
+    ctx.response().putHeader("Vary", "Accept-Encoding");
+    var accept = ctx.request().getHeader("Accept-Encoding");
+    var qBr = br != null ? quality(accept, "br") : 0;
+    var qGz = gz != null ? quality(accept, "gzip") : 0;
+    if (qBr <= 0 && qGz <= 0) {
+      ctx.next();
+      return;
+    }
+    var variant = qBr >= qGz ? br : gz;
+
+    FileMeta.lookup(ctx, path).subscribe().with(meta -> {
+      if (meta == null || !meta.regularFile() ||
+          meta.lastModified() != variant.sourceModified() || meta.size() != variant.sourceSize()) {
+        precompressed.refresh(path);
+        ctx.next();
+        return;
+      }
+      ctx.put(ServerMetrics.ROUTE, "precompressed");
+      var etag = meta.etag().substring(0, meta.etag().length() - 1) + "-" + variant.encoding() + "\"";
+      if (StaticResponses.endIfNotModified(ctx, etag, meta.lastModified())) {
+        return;
+      }
+      var response = ctx.response()
+          .putHeader("Content-Type", meta.contentType())
+          .putHeader("Content-Encoding", variant.encoding());
+      if (ctx.request().method().name().equals("HEAD")) {
+        response.putHeader("Content-Length", String.valueOf(variant.size())).endAndForget();
+        return;
+      }
+      response.sendFileAndForget(variant.file().toString());
+    });
+  }
+
+  /**
+   * Returns the q-value of the encoding in an Accept-Encoding header, falling back to "*", 0 if not accepted.
+   */
+  static double quality(String accept, String encoding) {
+    if (accept == null) {
+      return 0;
+    }
+    double any = 0;
+    for (var part : accept.split(",")) {
+      var fields = part.trim().split(";");
+      var name = fields[0].trim();
+      var q = 1.0;
+      for (int i = 1; i < fields.length; i++) {
+        var f = fields[i].trim();
+        if (f.startsWith("q=")) {
+          try {
+            q = Double.parseDouble(f.substring(2));
+          } catch (NumberFormatException e) {
+            q = 0;
+          }
+        }
+      }
+      if (name.equalsIgnoreCase(encoding)) {
+        return q;
+      }
+      if (name.equals("*")) {
+        any = q;
+      }
+    }
+    return any;
+  }
+}
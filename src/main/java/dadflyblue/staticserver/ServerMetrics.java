@@ -0,0 +1,152 @@
+package dadflyblue.staticserver;
+
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.core.http.HttpConnection;
+import io.vertx.mutiny.ext.web.RoutingContext;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request, connection and event loop metrics of the static-server, rendered in the Prometheus
+ * text format. Everything is recorded into striped counters, so it's cheap on the hot path.
+ */
+public final class ServerMetrics {
+  /**
+   * The routing context key of the route label, set by the handler serving the request.
+   */
+  public static final String ROUTE = "snowball.route";
+
+  private static final double[] BUCKETS = {.0005, .001, .0025, .005, .01, .025, .05, .1, .25, .5, 1, 2.5, 5, 10};
+  private static final long PROBE_INTERVAL = 100;
+
+  private static final class Histogram {
+    final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+    final LongAdder count = new LongAdder();
+    final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    void record(long nanos) {
+      var seconds = nanos / 1e9;
+      for (int i = 0; i < BUCKETS.length; i++) {
+        if (seconds <= BUCKETS[i]) {
+          buckets[i].increment();
+          break;
+        }
+      }
+      count.increment();
+      sumNanos.add(nanos);
+    }
+  }
+
+  private final Map<String, Histogram> requests = new ConcurrentHashMap<>();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder activeConnections = new LongAdder();
+  private final LongAdder connections = new LongAdder();
+  private final LongAdder blockedNanos = new LongAdder();
+  private final LongAccumulator maxLagNanos = new LongAccumulator(Math::max, 0);
+  private final FileCache cache;
+  private final FileIndex index;
+
+  public ServerMetrics(FileCache cache, FileIndex index) {
+    this.cache = cache;
+    this.index = index;
+  }
+
+  /**
+   * Times the request until its body is written, labelled by route and status.
+   */
+  public void track(RoutingContext ctx) {
+    var start = System.nanoTime();
+    ctx.addBodyEndHandler(() -> {
+      var response = ctx.response();
+      String route = ctx.get(ROUTE, "static");
+      requests.computeIfAbsent(route + "\0" + response.getStatusCode(), k -> new Histogram())
+          .record(System.nanoTime() - start);
+      bytesOut.add(response.bytesWritten());
+    });
+    ctx.next();
+  }
+
+  public void connected(HttpConnection conn) {
+    connections.increment();
+    activeConnections.increment();
+    conn.closeHandler(activeConnections::decrement);
+  }
+
+  /**
+   * Probes the lag of the calling event loop: the time a timer fires later than it should
+   * is time the loop was blocked.
+   */
+  public void probe(Vertx vertx) {
+    var expected = new long[]{System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROBE_INTERVAL)};
+    vertx.setPeriodic(PROBE_INTERVAL, id -> {
+      var now = System.nanoTime();
+      var lag = Math.max(0, now - expected[0]);
+      blockedNanos.add(lag);
+      maxLagNanos.accumulate(lag);
+      expected[0] = now + TimeUnit.MILLISECONDS.toNanos(PROBE_INTERVAL);
+    });
+  }
+
+  public void handle(RoutingContext ctx) {
+    ctx.put(ROUTE, "metrics");
+    ctx.response()
+        .putHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+        .endAndForget(render());
+  }
+
+  String render() {
+    var sb = new StringBuilder(4096);
+    sb.append("# TYPE snowball_http_request_duration_seconds histogram\n");
+    requests.forEach((key, h) -> {
+      var sep = key.indexOf('\0');
+      var labels = "route=\"" + key.substring(0, sep) + "\",status=\"" + key.substring(sep + 1) + "\"";
+      long cumulative = 0;
+      for (int i = 0; i < BUCKETS.length; i++) {
+        cumulative += h.buckets[i].sum();
+        sb.append("snowball_http_request_duration_seconds_bucket{").append(labels)
+            .append(",le=\"").append(BUCKETS[i]).append("\"} ").append(cumulative).append('\n');
+      }
+      var count = h.count.sum();
+      sb.append("snowball_http_request_duration_seconds_bucket{").append(labels)
+          .append(",le=\"+Inf\"} ").append(count).append('\n');
+      sb.append("snowball_http_request_duration_seconds_sum{").append(labels).append("} ")
+          .append(h.sumNanos.sum() / 1e9).append('\n');
+      sb.append("snowball_http_request_duration_seconds_count{").append(labels).append("} ")
+          .append(count).append('\n');
+    });
+    counter(sb, "snowball_http_response_bytes_total", bytesOut.sum());
+    counter(sb, "snowball_http_connections_total", connections.sum());
+    gauge(sb, "snowball_http_active_connections", activeConnections.sum());
+    counter(sb, "snowball_event_loop_blocked_seconds_total", blockedNanos.sum() / 1e9);
+    gauge(sb, "snowball_event_loop_max_lag_seconds", maxLagNanos.get() / 1e9);
+    if (cache != null) {
+      counter(sb, "snowball_file_cache_hits_total", cache.hits.sum());
+      counter(sb, "snowball_file_cache_misses_total", cache.misses.sum());
+      counter(sb, "snowball_file_cache_evictions_total", cache.evictions.sum());
+      gauge(sb, "snowball_file_cache_entries", cache.entries());
+      gauge(sb, "snowball_file_cache_bytes", cache.bytes());
+    }
+    if (index != null) {
+      gauge(sb, "snowball_file_index_entries", index.size());
+    }
+    return sb.toString();
+  }
+
+  private static void counter(StringBuilder sb, String name, Number value) {
+    sb.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void gauge(StringBuilder sb, String name, Number value) {
+    sb.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+  }
+}
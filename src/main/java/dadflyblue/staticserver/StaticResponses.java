@@ -0,0 +1,79 @@
+package dadflyblue.staticserver;
+
+import io.vertx.core.http.impl.MimeMapping;
+import io.vertx.ext.web.impl.Utils;
+import io.vertx.mutiny.ext.web.RoutingContext;
+
+/**
+ * Header and conditional-request helpers shared by the static-server handlers.
+ */
+public final class StaticResponses {
+  static final String CACHE_CONTROL = "public, max-age=86400";
+
+  private StaticResponses() {
+  }
+
+  public static String etag(long size, long lastModified) {
+    return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+  }
+
+  public static String contentType(String filename) {
+    var type = MimeMapping.getMimeTypeForFilename(filename);
+    if (type == null) {
+      return "application/octet-stream";
+    }
+    return type.startsWith("text") ? type + ";charset=UTF-8" : type;
+  }
+
+  /**
+   * Whether compressing a body of this content type pays off, media and archives are compressed already.
+   */
+  public static boolean isCompressible(String contentType) {
+    if (contentType == null) {
+      return false;
+    }
+    var type = contentType.toLowerCase();
+    return type.startsWith("text/") || type.contains("json") || type.contains("xml") ||
+        type.contains("javascript") || type.startsWith("image/svg") ||
+        type.equals("application/wasm") || type.startsWith("font/ttf") || type.startsWith("font/otf");
+  }
+
+  static boolean isGetOrHead(RoutingContext ctx) {
+    var method = ctx.request().method().name();
+    return method.equals("GET") || method.equals("HEAD");
+  }
+
+  private static long parseDate(String value) {
+    try {
+      return Utils.parseRFC1123DateTime(value);
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Puts the validator headers, and ends the response with 304 when the request's
+   * {@code If-None-Match}/{@code If-Modified-Since} still match.
+   */
+  static boolean endIfNotModified(RoutingContext ctx, String etag, long lastModified) {
+    var response = ctx.response();
+    response.putHeader("ETag", etag);
+    response.putHeader("Last-Modified", Utils.formatRFC1123DateTime(lastModified));
+    response.putHeader("Cache-Control", CACHE_CONTROL);
+
+    var request = ctx.request();
+    var ifNoneMatch = request.getHeader("If-None-Match");
+    boolean notModified;
+    if (ifNoneMatch != null) {
+      notModified = ifNoneMatch.equals("*") || ifNoneMatch.contains(etag);
+    } else {
+      var ifModifiedSince = request.getHeader("If-Modified-Since");
+      notModified = ifModifiedSince != null &&
+          lastModified / 1000 <= parseDate(ifModifiedSince) / 1000;
+    }
+    if (notModified) {
+      response.setStatusCode(304).endAndForget();
+    }
+    return notModified;
+  }
+}
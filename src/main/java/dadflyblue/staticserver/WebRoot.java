@@ -0,0 +1,32 @@
+package dadflyblue.staticserver;
+
+import io.vertx.core.net.impl.URIDecoder;
+
+import java.nio.file.Path;
+
+/**
+ * Maps request paths to files below the serving path, the same way {@code StaticHandler} does.
+ */
+public final class WebRoot {
+  private final Path base;
+
+  public WebRoot(String path) {
+    this.base = Path.of(path).toAbsolutePath().normalize();
+  }
+
+  public Path base() {
+    return base;
+  }
+
+  /**
+   * Returns the file for a normalized request path, or null if it escapes the serving path.
+   */
+  public Path resolve(String normalizedPath) {
+    var relative = URIDecoder.decodeURIComponent(normalizedPath, false);
+    while (relative.startsWith("/")) {
+      relative = relative.substring(1);
+    }
+    var file = base.resolve(relative).normalize();
+    return file.startsWith(base) ? file : null;
+  }
+}
@@ -0,0 +1,138 @@
+package dadflyblue.stats;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records (id, kind, nanoTime, thread id) events into striped, preallocated ring buffers.
+ * <p>
+ * The stripe is picked by thread id and a slot is claimed with one fetch-and-add, so recording neither
+ * locks nor allocates. A full stripe overwrites its oldest events. Read the events with
+ * {@link #summarize(PrintStream, String)} or {@link #dump(PrintStream)} once the recording threads are done.
+ */
+public final class EventRecorder {
+  private final String[] kinds;
+  private final Stripe[] stripes;
+  private final int stripeMask;
+
+  private static final class Stripe {
+    final AtomicLong cursor = new AtomicLong();
+    final long[] ids;
+    final long[] nanos;
+    final long[] threadIds;
+    final byte[] kinds;
+    final boolean[] virtual;
+    final int mask;
+
+    Stripe(int capacity) {
+      ids = new long[capacity];
+      nanos = new long[capacity];
+      threadIds = new long[capacity];
+      kinds = new byte[capacity];
+      virtual = new boolean[capacity];
+      mask = capacity - 1;
+    }
+
+    int size() {
+      return (int) Math.min(cursor.get(), ids.length);
+    }
+  }
+
+  /**
+   * @param capacity the events kept per stripe, rounded up to a power of two
+   * @param kinds    the names of the event kinds, an event's kind is an index into it
+   */
+  public EventRecorder(int capacity, String... kinds) {
+    this.kinds = kinds;
+    var n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+    var c = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    stripes = new Stripe[n];
+    for (int i = 0; i < n; i++) {
+      stripes[i] = new Stripe(c);
+    }
+    stripeMask = n - 1;
+  }
+
+  public void record(long id, int kind) {
+    var t = Thread.currentThread();
+    var tid = t.threadId();
+    var s = stripes[(int) (tid ^ (tid >>> 16)) & stripeMask];
+    var i = (int) s.cursor.getAndIncrement() & s.mask;
+    s.ids[i] = id;
+    s.nanos[i] = System.nanoTime();
+    s.threadIds[i] = tid;
+    s.kinds[i] = (byte) kind;
+    s.virtual[i] = t.isVirtual();
+  }
+
+  public void reset() {
+    for (var s : stripes) {
+      s.cursor.set(0);
+    }
+  }
+
+  /**
+   * Prints the number of events, how many were overwritten, and per kind the distinct threads and
+   * the spread from the first to the last event.
+   */
+  public void summarize(PrintStream out, String title) {
+    long total = 0, dropped = 0;
+    for (var s : stripes) {
+      total += s.cursor.get();
+      dropped += s.cursor.get() - s.size();
+    }
+    out.printf("%s: events=%d, overwritten=%d%n", title, total, dropped);
+    for (int k = 0; k < kinds.length; k++) {
+      long count = 0, first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+      var threads = new HashSet<Long>();
+      for (var s : stripes) {
+        for (int i = 0, n = s.size(); i < n; i++) {
+          if (s.kinds[i] == k) {
+            count++;
+            first = Math.min(first, s.nanos[i]);
+            last = Math.max(last, s.nanos[i]);
+            threads.add(s.threadIds[i]);
+          }
+        }
+      }
+      if (count > 0) {
+        out.printf("  %s: count=%d, threads=%d, first to last=%.3fms%n",
+            kinds[k], count, threads.size(), (last - first) / 1e6);
+      }
+    }
+  }
+
+  /**
+   * Prints every retained event ordered by time, with nanoseconds relative to the earliest one.
+   * The threads are named by what is alive now, a virtual or terminated thread by its id only.
+   */
+  public void dump(PrintStream out) {
+    var size = 0;
+    for (var s : stripes) {
+      size += s.size();
+    }
+    var order = new long[size][];
+    var j = 0;
+    for (int si = 0; si < stripes.length; si++) {
+      for (int i = 0, n = stripes[si].size(); i < n; i++) {
+        order[j++] = new long[]{stripes[si].nanos[i], si, i};
+      }
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(a[0], b[0]));
+    var names = new HashMap<Long, String>();
+    for (var t : Thread.getAllStackTraces().keySet()) {
+      names.put(t.threadId(), t.getName());
+    }
+    var base = size > 0 ? order[0][0] : 0;
+    for (var o : order) {
+      var s = stripes[(int) o[1]];
+      var i = (int) o[2];
+      var tid = s.threadIds[i];
+      var name = s.virtual[i] ? "virtual" : names.getOrDefault(tid, "terminated");
+      out.printf("%12d %s %d on: #%d %s%n", o[0] - base, kinds[s.kinds[i]], s.ids[i], tid, name);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package dadflyblue.stats;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * A log-linear (HdrHistogram-like) histogram of non-negative long values, usually nanoseconds.
+ * Values are kept with ~1.5% relative precision, the first 128 values are exact.
+ * <p>
+ * It is not thread-safe: record from one thread (e.g. one event loop context) and
+ * {@link #add(LatencyHistogram) merge} per-thread histograms for reporting.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+  private static final int BUCKETS = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+  private final long[] counts = new long[BUCKETS];
+  private long count;
+  private long min = Long.MAX_VALUE;
+  private long max;
+  private double sum;
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) ((value >>> shift) - SUB_BUCKET_HALF);
+  }
+
+  private static long highestEquivalent(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+    long sub = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    return ((sub + 1) << shift) - 1;
+  }
+
+  public void record(long value) {
+    value = Math.max(0, value);
+    counts[indexOf(value)]++;
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  public void reset() {
+    Arrays.fill(counts, 0);
+    count = 0;
+    sum = 0;
+    min = Long.MAX_VALUE;
+    max = 0;
+  }
+
+  public long count() {
+    return count;
+  }
+
+  public long min() {
+    return count == 0 ? 0 : min;
+  }
+
+  public long max() {
+    return max;
+  }
+
+  public double mean() {
+    return count == 0 ? 0 : sum / count;
+  }
+
+  public long valueAtPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highestEquivalent(i), max);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Prints p50/p90/p99/p99.9/max in milliseconds, treating the recorded values as nanoseconds.
+   */
+  public void print(PrintStream out, String title) {
+    out.printf("%s: count=%d, mean=%.3fms, p50=%.3fms, p90=%.3fms, p99=%.3fms, p99.9=%.3fms, max=%.3fms%n",
+        title, count, mean() / 1e6,
+        valueAtPercentile(50) / 1e6,
+        valueAtPercentile(90) / 1e6,
+        valueAtPercentile(99) / 1e6,
+        valueAtPercentile(99.9) / 1e6,
+        max() / 1e6);
+  }
+}
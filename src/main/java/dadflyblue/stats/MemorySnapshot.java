@@ -0,0 +1,65 @@
+package dadflyblue.stats;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.regex.Pattern;
+
+/**
+ * Live heap, native memory(NMT) and virtual thread stack chunks at one point in time, read through
+ * the {@code DiagnosticCommand} MBean like {@code jcmd} does.
+ * <p>
+ * Taking a snapshot runs {@code GC.class_histogram}, i.e. a full GC, so {@link #heapUsed()} is the live set.
+ * The NMT values are -1 unless the JVM runs with {@code -XX:NativeMemoryTracking=summary}.
+ *
+ * @param heapUsed        the heap in use after a full GC, in bytes
+ * @param nativeCommitted the committed native memory of the JVM, in bytes
+ * @param threadCommitted the committed native memory of thread stacks, in bytes
+ * @param stackChunks     the live {@code jdk.internal.vm.StackChunk} instances(unmounted virtual thread stacks)
+ * @param stackChunkBytes the heap held by those stack chunks, in bytes
+ */
+public record MemorySnapshot(long heapUsed, long nativeCommitted, long threadCommitted,
+                             long stackChunks, long stackChunkBytes) {
+  private static final Pattern NMT_TOTAL = Pattern.compile("Total: reserved=\\d+KB, committed=(\\d+)KB");
+  private static final Pattern NMT_THREAD = Pattern.compile("Thread \\(reserved=\\d+KB, committed=(\\d+)KB\\)");
+  private static final Pattern STACK_CHUNK = Pattern.compile(
+      "^\\s*\\d+:\\s+(\\d+)\\s+(\\d+)\\s+jdk\\.internal\\.vm\\.StackChunk\\b", Pattern.MULTILINE);
+
+  public static MemorySnapshot take() {
+    long chunks = 0, chunkBytes = 0;
+    var m = STACK_CHUNK.matcher(diagnostic("gcClassHistogram"));
+    if (m.find()) {
+      chunks = Long.parseLong(m.group(1));
+      chunkBytes = Long.parseLong(m.group(2));
+    }
+    var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    var nmt = diagnostic("vmNativeMemory", "summary");
+    return new MemorySnapshot(heap, kilobytes(NMT_TOTAL, nmt), kilobytes(NMT_THREAD, nmt), chunks, chunkBytes);
+  }
+
+  public boolean hasNativeMemory() {
+    return nativeCommitted >= 0;
+  }
+
+  public MemorySnapshot minus(MemorySnapshot base) {
+    return new MemorySnapshot(heapUsed - base.heapUsed,
+        hasNativeMemory() ? nativeCommitted - base.nativeCommitted : -1,
+        hasNativeMemory() ? threadCommitted - base.threadCommitted : -1,
+        stackChunks - base.stackChunks, stackChunkBytes - base.stackChunkBytes);
+  }
+
+  private static long kilobytes(Pattern p, String text) {
+    var m = p.matcher(text);
+    return m.find() ? Long.parseLong(m.group(1)) * 1024 : -1;
+  }
+
+  private static String diagnostic(String operation, String... args) {
+    try {
+      var name = new ObjectName("com.sun.management:type=DiagnosticCommand");
+      return (String) ManagementFactory.getPlatformMBeanServer().invoke(name, operation,
+          new Object[]{args}, new String[]{String[].class.getName()});
+    } catch (JMException e) {
+      return "";
+    }
+  }
+}
@@ -4,11 +4,34 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.*;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.util.Set;
-
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Socket} over a unix domain {@link SocketChannel}, for clients like OkHttp that only speak sockets.
+ * <p>
+ * The channel blocks, which parks a virtual thread rather than its carrier. The connect timeout and
+ * {@link #setSoTimeout(int) SO_TIMEOUT} are enforced by closing the socket, so unlike a plain socket this one
+ * can't be used after a timeout, which is how OkHttp treats a timeout anyway. A blocking call only publishes its
+ * deadline; the socket's watchdog, on one shared timer thread, is armed once and re-arms itself at the latest
+ * deadline, so back-to-back reads neither allocate nor touch the timer.
+ * Closing the socket wakes up a blocked read or write. There is one stream pair per socket, and it is
+ * buffered with direct buffers sized from SO_RCVBUF/SO_SNDBUF.
+ */
 class UnixDomainSocket extends Socket {
+  private static final int MIN_BUFFER = 8 * 1024;
+  private static final int MAX_BUFFER = 256 * 1024;
+
+  private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1,
+      r -> Thread.ofPlatform().daemon().name("uds-timeout").unstarted(r));
+  private static final long IDLE = 0;
+  private static final long TIMED_OUT = Long.MIN_VALUE;
+
   static final SocketOption<Boolean> SO_OOBINLINE =
       new SocketOption<>() {
         public String name() {
@@ -24,21 +47,34 @@ class UnixDomainSocket extends Socket {
         }
   };
 
-  private final SocketChannel channel;
-  private final UnixDomainSocketAddress address;
+  private final UnixDomainSocketFactory factory;
+  private volatile UnixDomainSocketFactory.Endpoint endpoint;
+  private volatile SocketChannel channel;
+  private boolean released;
   private volatile boolean inputShutdown;
   private volatile boolean outputShutdown;
   private volatile int timeout;
-
-  private UnixDomainSocket(SocketChannel channel, String path) throws IOException {
+  // the deadline of the blocking call, IDLE, or TIMED_OUT once the watchdog has closed the socket
+  private final AtomicLong blockedUntil = new AtomicLong(IDLE);
+  private final AtomicBoolean watchdogArmed = new AtomicBoolean();
+  private final Runnable watchdog = this::watch;
+  private SocketInputStream in;
+  private SocketOutputStream out;
+
+  private UnixDomainSocket(UnixDomainSocketFactory factory, UnixDomainSocketFactory.Endpoint endpoint,
+                           SocketChannel channel) throws IOException {
     super(NullSocketImpl.create());
+    this.factory = factory;
+    this.endpoint = endpoint;
     this.channel = channel;
-    this.address = UnixDomainSocketAddress.of(path);
+    // the pooled channels don't block, so that the pool can probe them
+    channel.configureBlocking(true);
   }
 
-  static Socket create(SocketChannel channel, String path) {
+  static Socket create(UnixDomainSocketFactory factory, UnixDomainSocketFactory.Endpoint endpoint,
+                       SocketChannel channel) {
     try {
-      return new UnixDomainSocket(channel, path);
+      return new UnixDomainSocket(factory, endpoint, channel);
     } catch (IOException e) {
       throw new InternalError(e);
     }
@@ -59,8 +95,208 @@ class UnixDomainSocket extends Socket {
 
   @Override
   public void connect(SocketAddress remote, int timeout) throws IOException {
-    if (!channel.isConnected()) {
-      channel.connect(address);
+    if (timeout < 0)
+      throw new IllegalArgumentException("timeout < 0");
+    if (channel.isConnected()) {
+      return;
+    }
+    var deadline = deadline(timeout);
+    for (int attempt = 1; ; attempt++) {
+      block(deadline, "connect");
+      IOException failure = null;
+      try {
+        channel.connect(endpoint.address);
+      } catch (IOException e) {
+        failure = e;
+      }
+      if (unblock()) {
+        throw timedOut("connect");
+      }
+      if (failure == null) {
+        return;
+      }
+      // fail over to the next endpoint, the failed connect has closed the channel
+      factory.eject(endpoint);
+      if (attempt >= factory.endpointCount()) {
+        throw failure;
+      }
+      failover();
+      if (channel.isConnected()) {
+        return;
+      }
+    }
+  }
+
+  private synchronized void failover() throws IOException {
+    if (released) {
+      throw new SocketException("Socket is closed");
+    }
+    var old = channel;
+    factory.release(endpoint);
+    endpoint = factory.acquire();
+    var idle = factory.takeIdle(endpoint);
+    channel = idle != null ? idle : SocketChannel.open(StandardProtocolFamily.UNIX);
+    channel.configureBlocking(true);
+    old.close();
+  }
+
+  private static long deadline(int timeoutMillis) {
+    return timeoutMillis == 0 ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+  }
+
+  /**
+   * Publishes the deadline of a blocking call, 0 waits forever, and arms the watchdog if it isn't.
+   */
+  private void block(long deadline, String what) throws SocketTimeoutException {
+    if (deadline == 0) {
+      return;
+    }
+    if (deadline - System.nanoTime() <= 0) {
+      throw timedOut(what);
+    }
+    blockedUntil.set(deadline == IDLE || deadline == TIMED_OUT ? deadline + 1 : deadline);
+    if (!watchdogArmed.get() && watchdogArmed.compareAndSet(false, true)) {
+      TIMER.schedule(watchdog, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Ends the blocking call, returns if it timed out, in which case the socket is closed.
+   */
+  private boolean unblock() {
+    return blockedUntil.getAndSet(IDLE) == TIMED_OUT;
+  }
+
+  private void watch() {
+    while (true) {
+      var deadline = blockedUntil.get();
+      if (deadline == IDLE) {
+        watchdogArmed.set(false);
+        // a call may have published its deadline while it still saw the watchdog armed
+        if (blockedUntil.get() == IDLE || !watchdogArmed.compareAndSet(false, true)) {
+          return;
+        }
+        continue;
+      }
+      var wait = deadline - System.nanoTime();
+      if (wait > 0) {
+        TIMER.schedule(watchdog, wait, TimeUnit.NANOSECONDS);
+        return;
+      }
+      if (blockedUntil.compareAndSet(deadline, TIMED_OUT)) {
+        watchdogArmed.set(false);
+        closeQuietly();
+        return;
+      }
+      // the call ended, or another one started, meanwhile
+    }
+  }
+
+  private static SocketTimeoutException timedOut(String what) {
+    return new SocketTimeoutException(what + " timed out");
+  }
+
+  private static int bufferSize(int size) {
+    return Math.min(MAX_BUFFER, Math.max(MIN_BUFFER, size));
+  }
+
+  private final class SocketInputStream extends InputStream {
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize(getReceiveBufferSize())).flip();
+
+    @Override
+    public int read() throws IOException {
+      if (!buffer.hasRemaining() && fill() < 0) {
+        return -1;
+      }
+      return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining() && fill() < 0) {
+        return -1;
+      }
+      var n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    private int fill() throws IOException {
+      if (isInputShutdown()) {
+        return -1;
+      }
+      buffer.clear();
+      block(deadline(timeout), "Read");
+      IOException failure = null;
+      var n = -1;
+      try {
+        n = channel.read(buffer);
+      } catch (IOException e) {
+        failure = e;
+      }
+      buffer.flip();
+      if (unblock()) {
+        throw timedOut("Read");
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return buffer.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+      UnixDomainSocket.this.close();
+    }
+  }
+
+  private final class SocketOutputStream extends OutputStream {
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize(getSendBufferSize()));
+
+    @Override
+    public void write(int b) throws IOException {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (!buffer.hasRemaining()) {
+          flush();
+        }
+        var n = Math.min(len, buffer.remaining());
+        buffer.put(b, off, n);
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      buffer.flip();
+      try {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      } finally {
+        buffer.compact();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      UnixDomainSocket.this.close();
     }
   }
 
@@ -85,7 +321,7 @@ class UnixDomainSocket extends Socket {
   @Override
   public InetAddress getLocalAddress() {
     if (channel.isOpen()) {
-      return getLocalAddress();
+      return InetAddress.getLoopbackAddress();
     }
     return new InetSocketAddress(0).getAddress();
   }
@@ -143,7 +379,12 @@ class UnixDomainSocket extends Socket {
       throw new SocketException("Socket is not connected");
     if (isInputShutdown())
       throw new SocketException("Socket input is shutdown");
-    return Channels.newInputStream(channel);
+    synchronized (this) {
+      if (in == null) {
+        in = new SocketInputStream();
+      }
+      return in;
+    }
   }
 
   @Override
@@ -154,7 +395,12 @@ class UnixDomainSocket extends Socket {
       throw new SocketException("Socket is not connected");
     if (isOutputShutdown())
       throw new SocketException("Socket output is shutdown");
-    return Channels.newOutputStream(channel);
+    synchronized (this) {
+      if (out == null) {
+        out = new SocketOutputStream();
+      }
+      return out;
+    }
   }
 
   private void setBooleanOption(SocketOption<Boolean> name, boolean value) {
@@ -304,8 +550,19 @@ class UnixDomainSocket extends Socket {
   }
 
   @Override
-  public void close() throws IOException {
+  public synchronized void close() throws IOException {
     channel.close();
+    if (!released) {
+      released = true;
+      factory.release(endpoint);
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (IOException ignored) {
+    }
   }
 
   @Override
@@ -321,6 +578,9 @@ class UnixDomainSocket extends Socket {
   @Override
   public void shutdownOutput() {
     try {
+      if (out != null) {
+        out.flush();
+      }
       channel.shutdownOutput();
       outputShutdown = true;
     } catch (Exception x) {
@@ -331,7 +591,7 @@ class UnixDomainSocket extends Socket {
   @Override
   public String toString() {
     if (channel.isConnected())
-      return "Socket[addr=" + address + "]";
+      return "Socket[addr=" + endpoint.address + "]";
     return "Socket[unconnected]";
   }
 
@@ -2,29 +2,246 @@ package dadflyblue.unixsocket;
 
 import javax.net.SocketFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class UnixDomainSocketFactory extends SocketFactory {
+/**
+ * Creates sockets over one or more unix socket paths.
+ * <p>
+ * With several paths every socket goes to the endpoint picked by the {@link Policy}. An endpoint
+ * that fails to connect is ejected, and a socket fails over to the next one. A maintenance thread
+ * re-checks ejected endpoints every second and keeps {@code prewarm} idle connected channels per
+ * endpoint. New sockets take one of those channels instead of connecting.
+ */
+public class UnixDomainSocketFactory extends SocketFactory implements Closeable {
   // implementation refers:
   // - https://www.morling.dev/blog/talking-to-postgres-through-java-16-unix-domain-socket-channels/
   // - https://github.com/square/okhttp/tree/master/samples/unixdomainsockets/src/main/java/okhttp3/unixdomainsockets
   // - https://inside.java/2021/02/03/jep380-unix-domain-sockets-channels/
   // - https://gist.github.com/jedvardsson/7ba7bbc94b4951f82da4b590ace725d2
 
-  private final String path;
+  /**
+   * {@code LEAST_CONNECTIONS} picks the endpoint with the fewest open sockets, idle keep-alive ones included,
+   * as a socket can't tell whether a request is in flight on it.
+   */
+  public enum Policy {
+    ROUND_ROBIN, LEAST_CONNECTIONS
+  }
+
+  static final class Endpoint {
+    final UnixDomainSocketAddress address;
+    final AtomicInteger connections = new AtomicInteger();
+    final Queue<SocketChannel> idle = new ConcurrentLinkedQueue<>();
+    volatile boolean ejected;
+
+    Endpoint(UnixDomainSocketAddress address) {
+      this.address = address;
+    }
+  }
+
+  private final Endpoint[] endpoints;
+  private final Policy policy;
+  private final int prewarm;
+  private final AtomicInteger next = new AtomicInteger();
+  private final ScheduledExecutorService maintenance;
 
   public UnixDomainSocketFactory(String path) {
-    this.path = path;
+    this(List.of(path), Policy.ROUND_ROBIN, 0);
+  }
+
+  private UnixDomainSocketFactory(List<String> paths, Policy policy, int prewarm) {
+    if (paths.isEmpty()) {
+      throw new IllegalArgumentException("no unix socket path");
+    }
+    endpoints = paths.stream().map(p -> new Endpoint(address(p))).toArray(Endpoint[]::new);
+    this.policy = policy;
+    this.prewarm = prewarm;
+    maintenance = endpoints.length > 1 || prewarm > 0 ?
+        Executors.newSingleThreadScheduledExecutor(
+            r -> Thread.ofPlatform().daemon().name("uds-maintenance").unstarted(r)) :
+        null;
+  }
+
+  /**
+   * Creates a factory and starts its maintenance, if it needs any.
+   *
+   * @param paths   the socket paths, Linux abstract namespace names("@name") are not supported
+   * @param policy  how an endpoint is picked for a new socket
+   * @param prewarm the idle connected channels kept per endpoint, 0 disables the pool
+   */
+  public static UnixDomainSocketFactory create(List<String> paths, Policy policy, int prewarm) {
+    var factory = new UnixDomainSocketFactory(paths, policy, prewarm);
+    factory.start();
+    return factory;
+  }
+
+  private void start() {
+    if (maintenance != null) {
+      // The first fill runs here, so that the first requests already find connected channels.
+      maintain();
+      maintenance.scheduleWithFixedDelay(this::maintain, 1, 1, TimeUnit.SECONDS);
+    }
+  }
+
+  static UnixDomainSocketAddress address(String path) {
+    if (path.startsWith("@")) {
+      // A path can't hold the leading NUL byte of an abstract name, so JDK channels can't reach them.
+      throw new IllegalArgumentException("abstract namespace socket " + path +
+          " is not supported by JDK socket channels, bind the server to a path");
+    }
+    return UnixDomainSocketAddress.of(path);
+  }
+
+  int endpointCount() {
+    return endpoints.length;
+  }
+
+  /**
+   * Picks a live endpoint by the policy and counts the new socket on it. If every endpoint is
+   * ejected, it picks round-robin among all of them.
+   */
+  Endpoint acquire() {
+    var n = endpoints.length;
+    var start = Math.floorMod(next.getAndIncrement(), n);
+    Endpoint best = null;
+    for (int i = 0; i < n; i++) {
+      var ep = endpoints[(start + i) % n];
+      if (ep.ejected) {
+        continue;
+      }
+      if (policy == Policy.ROUND_ROBIN) {
+        best = ep;
+        break;
+      }
+      if (best == null || ep.connections.get() < best.connections.get()) {
+        best = ep;
+      }
+    }
+    if (best == null) {
+      best = endpoints[start];
+    }
+    best.connections.incrementAndGet();
+    return best;
+  }
+
+  void release(Endpoint ep) {
+    ep.connections.decrementAndGet();
+  }
+
+  void eject(Endpoint ep) {
+    if (maintenance == null) {
+      return;
+    }
+    ep.ejected = true;
+    SocketChannel c;
+    while ((c = ep.idle.poll()) != null) {
+      closeQuietly(c);
+    }
+  }
+
+  /**
+   * Returns a pooled channel of the endpoint that is still connected, or null.
+   */
+  SocketChannel takeIdle(Endpoint ep) {
+    SocketChannel c;
+    while ((c = ep.idle.poll()) != null) {
+      if (isAlive(c)) {
+        return c;
+      }
+      closeQuietly(c);
+    }
+    return null;
+  }
+
+  // An idle http connection has nothing to read, so EOF or data means the peer is done with it.
+  private static boolean isAlive(SocketChannel c) {
+    try {
+      return c.isOpen() && c.read(ByteBuffer.allocate(1)) == 0;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static SocketChannel connect(UnixDomainSocketAddress address) throws IOException {
+    var c = SocketChannel.open(address);
+    c.configureBlocking(false);
+    return c;
+  }
+
+  private static void closeQuietly(SocketChannel c) {
+    try {
+      c.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  private void maintain() {
+    for (var ep : endpoints) {
+      try {
+        if (ep.ejected) {
+          var c = connect(ep.address);
+          ep.ejected = false;
+          if (prewarm > 0) {
+            ep.idle.offer(c);
+          } else {
+            closeQuietly(c);
+          }
+        }
+        // Only a channel out of the queue is probed, one a socket took may be in use already.
+        for (int i = ep.idle.size(); i > 0; i--) {
+          var c = ep.idle.poll();
+          if (c == null) {
+            break;
+          }
+          if (isAlive(c)) {
+            ep.idle.offer(c);
+          } else {
+            closeQuietly(c);
+          }
+        }
+        for (int i = ep.idle.size(); i < prewarm; i++) {
+          ep.idle.offer(connect(ep.address));
+        }
+      } catch (IOException e) {
+        eject(ep);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    if (maintenance != null) {
+      maintenance.shutdownNow();
+    }
+    for (var ep : endpoints) {
+      SocketChannel c;
+      while ((c = ep.idle.poll()) != null) {
+        closeQuietly(c);
+      }
+    }
   }
 
   @Override
   public Socket createSocket() throws IOException {
-    var channel = SocketChannel.open(StandardProtocolFamily.UNIX);
-    return UnixDomainSocket.create(channel, path);
+    var ep = acquire();
+    var channel = takeIdle(ep);
+    if (channel == null) {
+      channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+    }
+    return UnixDomainSocket.create(this, ep, channel);
   }
 
   @Override
@@ -0,0 +1,155 @@
+package dadflyblue;
+
+import dadflyblue.daemon.Frames;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.mutiny.core.Vertx;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import picocli.CommandLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs mixed commands, one after the other and at the same time, against one daemon,
+ * speaking the frames of {@code remote} to it.
+ */
+@Timeout(120)
+class DaemonCommandTest {
+  private static Vertx vertx;
+  private static Path socket;
+  private static int port;
+
+  record Result(int code, String out, String err) {
+  }
+
+  @BeforeAll
+  static void start() throws Exception {
+    vertx = Vertx.vertx();
+    port = new BenchServer(1024, 1024, 0, 0, 0, 500)
+        .create(vertx, new HttpServerOptions())
+        .listenAndAwait(0)
+        .actualPort();
+
+    socket = Files.createTempDirectory("daemon-test").resolve("daemon.sock");
+    var daemon = new DaemonCommand();
+    daemon.unixSocketAddress = socket.toString();
+    daemon.unixSocketMode = "rw-------";
+    daemon.commandLineFactory = () -> new CommandLine(new SnowballCommand());
+    var thread = new Thread(daemon::run, "daemon");
+    thread.setDaemon(true);
+    thread.start();
+    for (int i = 0; i < 100 && !Files.exists(socket); i++) {
+      Thread.sleep(100);
+    }
+    assertTrue(Files.exists(socket), "the daemon didn't start");
+  }
+
+  @AfterAll
+  static void stop() {
+    vertx.closeAndAwait();
+  }
+
+  @Test
+  void runsMixedCommandsInOneDaemon() throws IOException {
+    for (int i = 0; i < 3; i++) {
+      var get = remote("", "vertx-curl", "--host", "127.0.0.1", "-p", Integer.toString(port), "/bytes/3");
+      assertEquals(0, get.code());
+      assertEquals(3, get.out().length());
+
+      var echo = remote("abc-" + i, "vertx-curl", "-m", "POST", "--host", "127.0.0.1",
+          "-p", Integer.toString(port), "--data-stdin", "/echo");
+      assertEquals(0, echo.code(), echo.err());
+      assertEquals("abc-" + i, echo.out());
+
+      var batch = remote(url("/bytes/5") + "\n" + url("/bytes/7") + "\n", "ok-curl", "-b", "-");
+      assertEquals(0, batch.code(), batch.err());
+      assertTrue(batch.out().contains("200 5 "), batch.out());
+      assertTrue(batch.out().contains("200 7 "), batch.out());
+      assertTrue(batch.out().contains("requests: 2, failed: 0"), batch.out());
+
+      var single = remote("", "ok-curl", url("/bytes/4"));
+      assertEquals(0, single.code(), single.err());
+      assertEquals(4, single.out().length());
+
+      var refused = remote("", "static-server");
+      assertEquals(2, refused.code());
+      assertTrue(refused.err().contains("can't run in the daemon"), refused.err());
+    }
+  }
+
+  @Test
+  void keepsTheStdioOfConcurrentCommandsApart() throws Exception {
+    var results = new ArrayList<Future<Result>>();
+    try (var exec = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < 8; i++) {
+        var body = "body-" + i;
+        var vertxCurl = i % 2 == 0;
+        results.add(exec.submit(() -> vertxCurl ?
+            remote(body, "vertx-curl", "-m", "POST", "--host", "127.0.0.1",
+                "-p", Integer.toString(port), "--data-stdin", "/echo") :
+            remote("POST " + url("/echo") + " " + body + "\n", "ok-curl", "-b", "-")));
+      }
+    }
+    for (int i = 0; i < results.size(); i++) {
+      var result = results.get(i).get();
+      assertEquals(0, result.code(), result.err());
+      if (i % 2 == 0) {
+        assertEquals("body-" + i, result.out());
+      } else {
+        assertTrue(result.out().contains("200 " + ("body-" + i).length() + " "), result.out());
+        assertTrue(result.out().contains("requests: 1, failed: 0"), result.out());
+      }
+    }
+  }
+
+  private static String url(String path) {
+    return "http://127.0.0.1:" + port + path;
+  }
+
+  private static Result remote(String stdin, String... args) throws IOException {
+    try (var ch = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+      ch.connect(UnixDomainSocketAddress.of(socket));
+      var in = new DataInputStream(Channels.newInputStream(ch));
+      var writer = new Frames.Writer(Channels.newOutputStream(ch));
+      writer.writeArgs(List.of(args));
+      var b = stdin.getBytes(StandardCharsets.UTF_8);
+      if (b.length > 0) {
+        writer.write(Frames.STDIN, b, 0, b.length);
+      }
+      writer.write(Frames.STDIN, b, 0, 0);
+
+      var out = new ByteArrayOutputStream();
+      var err = new ByteArrayOutputStream();
+      while (true) {
+        var frame = Frames.read(in);
+        switch (frame.type()) {
+          case Frames.STDOUT -> out.writeBytes(frame.payload());
+          case Frames.STDERR -> err.writeBytes(frame.payload());
+          case Frames.EXIT -> {
+            return new Result(Frames.exitCode(frame), out.toString(StandardCharsets.UTF_8),
+                err.toString(StandardCharsets.UTF_8));
+          }
+          default -> throw new IOException("unexpected frame: " + (char) frame.type());
+        }
+      }
+    }
+  }
+}